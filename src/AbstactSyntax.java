@@ -1,9 +1,27 @@
 import java.util.*;
 
+abstract class Node {
+    // Source range of the node, packed by Span; Span.NONE if synthesized.
+    // Relative to the start of origin if it has one, so read it by span()
+    long span = Span.NONE;
+    Origin origin;
+
+    long span() {
+        return origin == null || span == Span.NONE ? span : Span.shift(span, origin.start());
+    }
+}
+
+interface Origin {
+    // Where the spans of the nodes that refer to it are counted from; it
+    // may move as the text before it is edited (see IncrementalParser)
+    int start();
+}
+
 class Program {
     // Program = Declarations globals ; Functions functions
     Declarations globals;
     Functions functions;
+    LineTable lines = new LineTable();  // for reporting node spans
 
     public Program(Declarations globals, Functions functions) {
         this.globals = globals;
@@ -29,9 +47,11 @@ class Functions extends ArrayList<Function> {
     }
 }
 
-class Function {
+class Function extends Node {
     Type type;
     String id;
+    int symbol = -1;    // id of the name in the compilation's Symbols, once resolved
+    int frameSize = -1; // slots of its parameters and locals, once Slots resolved them
     Declarations params, locals;
     Block body;
 
@@ -71,7 +91,7 @@ class Declarations extends ArrayList<Declaration> {
     }
 }
 
-abstract class Declaration {
+abstract class Declaration extends Node {
     // Declaration = VariableDeclare
     Variable variable;
     Type type;
@@ -121,7 +141,7 @@ class Type {
 
 }
 
-abstract class Statement {
+abstract class Statement extends Node {
     // Statement = Skip | Block | Assignment | Conditional | Loop | Return | Call
     public void display(int k) {
         for (int w = 0; w < k; ++w) System.out.print("\t");
@@ -224,6 +244,7 @@ class Return extends Statement {
 
 class CallStatement extends Statement {
     String id;
+    int symbol = -1;    // of the callee, once resolved
     Expressions args;
 
     public CallStatement(String id, Expressions args) {
@@ -247,8 +268,10 @@ class Expressions extends ArrayList<Expression> {
     }
 }
 
-abstract class Expression {
+abstract class Expression extends Node {
     // Expression = VariableRef | Value | Binary | Unary | Call
+    // Type found by StaticTypeCheck.V; null until then, or if unknown
+    Type type;
 
     public void display(int k) {
         for (int w = 0; w < k; ++w) System.out.print("\t");
@@ -259,6 +282,9 @@ abstract class Expression {
 abstract class VariableRef extends Expression {
     // VariableRef = Variable
     String id;
+    int symbol = -1;    // id of the name in the compilation's Symbols, once resolved
+    int slot = -1;      // index in its frame (State), once Slots resolved it
+    boolean global;     // the frame is the globals'
 
     public String id() {
         return id;
@@ -298,7 +324,6 @@ class Variable extends VariableRef {
 
 abstract class Value extends Expression {
     // Value = IntValue | BoolValue | CharValue | FloatValue
-    protected Type type;
     protected boolean undef = true;
 
     int intValue() {
@@ -497,6 +522,7 @@ class Unary extends Expression {
 
 class CallExpression extends Expression {
     String id;
+    int symbol = -1;    // of the callee, once resolved
     Expressions args;
 
     public CallExpression(String id, Expressions args) {
@@ -536,6 +562,7 @@ class Operator {
     final static String INT = "int";
     final static String FLOAT = "float";
     final static String CHAR = "char";
+    final static String BOOL = "bool";  // parsed as a cast, reported by the checker
     // Typed Operators
     // RelationalOp = < | <= | == | != | >= | >
     final static String INT_LT = "INT<";
@@ -586,10 +613,78 @@ class Operator {
     final static String C2I = "C2I";
     final static String I2C = "I2C";
 
-    String val;
+    // Kinds of operator, as bits of Code.kind
+    private final static int BOOLEAN = 1, RELATIONAL = 2, ARITHMETIC = 4, MODULO = 8,
+            NEGATE = 16, NOT_OP = 32, TO_INT = 64, TO_FLOAT = 128, TO_CHAR = 256;
+
+    // The operators as dense opcodes.  Each has one shared Operator
+    // instance; classification and the typed variants are read from
+    // tables indexed by the opcode.
+    enum Code {
+        AND(Operator.AND, BOOLEAN), OR(Operator.OR, BOOLEAN),
+        LT(Operator.LT, RELATIONAL), LE(Operator.LE, RELATIONAL), EQ(Operator.EQ, RELATIONAL),
+        NE(Operator.NE, RELATIONAL), GT(Operator.GT, RELATIONAL), GE(Operator.GE, RELATIONAL),
+        PLUS(Operator.PLUS, ARITHMETIC), MINUS(Operator.MINUS, ARITHMETIC),
+        TIMES(Operator.TIMES, ARITHMETIC), DIV(Operator.DIV, ARITHMETIC),
+        MOD(Operator.MOD, ARITHMETIC | MODULO),
+        NOT(Operator.NOT, NOT_OP), NEG(Operator.NEG, NEGATE),
+        INT(Operator.INT, TO_INT), FLOAT(Operator.FLOAT, TO_FLOAT), CHAR(Operator.CHAR, TO_CHAR),
+        BOOL(Operator.BOOL, 0),
+        INT_LT(Operator.INT_LT, RELATIONAL), INT_LE(Operator.INT_LE, RELATIONAL),
+        INT_EQ(Operator.INT_EQ, RELATIONAL), INT_NE(Operator.INT_NE, RELATIONAL),
+        INT_GT(Operator.INT_GT, RELATIONAL), INT_GE(Operator.INT_GE, RELATIONAL),
+        INT_PLUS(Operator.INT_PLUS, ARITHMETIC), INT_MINUS(Operator.INT_MINUS, ARITHMETIC),
+        INT_TIMES(Operator.INT_TIMES, ARITHMETIC), INT_DIV(Operator.INT_DIV, ARITHMETIC),
+        INT_MOD(Operator.INT_MOD, ARITHMETIC | MODULO), INT_NEG(Operator.INT_NEG, NEGATE),
+        FLOAT_LT(Operator.FLOAT_LT, RELATIONAL), FLOAT_LE(Operator.FLOAT_LE, RELATIONAL),
+        FLOAT_EQ(Operator.FLOAT_EQ, RELATIONAL), FLOAT_NE(Operator.FLOAT_NE, RELATIONAL),
+        FLOAT_GT(Operator.FLOAT_GT, RELATIONAL), FLOAT_GE(Operator.FLOAT_GE, RELATIONAL),
+        FLOAT_PLUS(Operator.FLOAT_PLUS, ARITHMETIC), FLOAT_MINUS(Operator.FLOAT_MINUS, ARITHMETIC),
+        FLOAT_TIMES(Operator.FLOAT_TIMES, ARITHMETIC), FLOAT_DIV(Operator.FLOAT_DIV, ARITHMETIC),
+        FLOAT_NEG(Operator.FLOAT_NEG, NEGATE),
+        CHAR_LT(Operator.CHAR_LT, RELATIONAL), CHAR_LE(Operator.CHAR_LE, RELATIONAL),
+        CHAR_EQ(Operator.CHAR_EQ, RELATIONAL), CHAR_NE(Operator.CHAR_NE, RELATIONAL),
+        CHAR_GT(Operator.CHAR_GT, RELATIONAL), CHAR_GE(Operator.CHAR_GE, RELATIONAL),
+        BOOL_LT(Operator.BOOL_LT, RELATIONAL), BOOL_LE(Operator.BOOL_LE, RELATIONAL),
+        BOOL_EQ(Operator.BOOL_EQ, RELATIONAL), BOOL_NE(Operator.BOOL_NE, RELATIONAL),
+        BOOL_GT(Operator.BOOL_GT, RELATIONAL), BOOL_GE(Operator.BOOL_GE, RELATIONAL),
+        I2F(Operator.I2F, TO_FLOAT), F2I(Operator.F2I, TO_INT),
+        C2I(Operator.C2I, TO_INT), I2C(Operator.I2C, TO_CHAR);
+
+        final String symbol;
+        final int kind;
+
+        Code(String symbol, int kind) {
+            this.symbol = symbol;
+            this.kind = kind;
+        }
+    }
+
+    final String val;
+    final Code code;
+
+    private Operator(Code code) {
+        this.code = code;
+        val = code.symbol;
+    }
+
+    private final static Operator[] OPERATORS = new Operator[Code.values().length];
+    private final static Map<String, Operator> BY_SYMBOL = new HashMap<String, Operator>();
+
+    static {
+        for (Code c : Code.values()) {
+            OPERATORS[c.ordinal()] = new Operator(c);
+            BY_SYMBOL.put(c.symbol, OPERATORS[c.ordinal()]);
+        }
+    }
+
+    static Operator of(Code code) {
+        return OPERATORS[code.ordinal()];
+    }
 
-    Operator(String s) {
-        val = s;
+    // The operator written s, or null if there is none
+    static Operator of(String s) {
+        return BY_SYMBOL.get(s);
     }
 
     public String toString() {
@@ -600,127 +695,113 @@ class Operator {
         return val.equals(obj);
     }
 
+    private boolean is(int kind) {
+        return (code.kind & kind) != 0;
+    }
+
     boolean BooleanOp() {
-        return val.equals(AND) || val.equals(OR);
+        return is(BOOLEAN);
     }
 
     boolean RelationalOp() {
-        return val.equals(LT) || val.equals(LE) || val.equals(EQ)
-                || val.equals(NE) || val.equals(GT) || val.equals(GE)
-                || val.equals(FLOAT_LT) || val.equals(FLOAT_LE)
-                || val.equals(FLOAT_EQ) || val.equals(FLOAT_NE)
-                || val.equals(FLOAT_GT) || val.equals(FLOAT_GE)
-                || val.equals(INT_LT) || val.equals(INT_LE)
-                || val.equals(INT_EQ) || val.equals(INT_NE)
-                || val.equals(INT_GT) || val.equals(INT_GE)
-                || val.equals(CHAR_LT) || val.equals(CHAR_LE)
-                || val.equals(CHAR_EQ) || val.equals(CHAR_NE)
-                || val.equals(CHAR_GT) || val.equals(CHAR_GE)
-                || val.equals(BOOL_LT) || val.equals(BOOL_LE)
-                || val.equals(BOOL_EQ) || val.equals(BOOL_NE)
-                || val.equals(BOOL_GT) || val.equals(BOOL_GE);
+        return is(RELATIONAL);
     }
 
     boolean ArithmeticOp() {
-        return val.equals(PLUS) || val.equals(MINUS)
-                || val.equals(TIMES) || val.equals(DIV) || val.equals(MOD)
-                || val.equals(INT_PLUS) || val.equals(INT_MINUS)
-                || val.equals(INT_TIMES) || val.equals(INT_DIV)
-                || val.equals(INT_MOD)
-                || val.equals(FLOAT_PLUS) || val.equals(FLOAT_MINUS)
-                || val.equals(FLOAT_TIMES) || val.equals(FLOAT_DIV);
+        return is(ARITHMETIC);
     }
 
     boolean ModOp() {
-        return val.equals(MOD) || val.equals(INT_MOD);
+        return is(MODULO);
     }
 
     boolean NotOp() {
-        return val.equals(NOT);
+        return is(NOT_OP);
     }
 
     boolean NegateOp() {
-        return val.equals(NEG) || val.equals(INT_NEG) || val.equals(FLOAT_NEG);
+        return is(NEGATE);
     }
 
     boolean intOp() {
-        return val.equals(INT) || val.equals(C2I) || val.equals(F2I);
+        return is(TO_INT);
     }
 
     boolean floatOp() {
-        return val.equals(FLOAT) || val.equals(I2F);
+        return is(TO_FLOAT);
     }
 
     boolean charOp() {
-        return val.equals(CHAR) || val.equals(I2C);
+        return is(TO_CHAR);
     }
 
     boolean I2FOp() {
-        return val.equals(I2F);
+        return code == Code.I2F;
     }
 
     boolean F2IOp() {
-        return val.equals(F2I);
+        return code == Code.F2I;
     }
 
     boolean C2IOp() {
-        return val.equals(C2I);
+        return code == Code.C2I;
     }
 
     boolean I2COp() {
-        return val.equals(I2C);
-    }
-
-    final static String intMap[][] = {
-            {PLUS, INT_PLUS}, {MINUS, INT_MINUS},
-            {TIMES, INT_TIMES}, {DIV, INT_DIV}, {MOD, INT_MOD},
-            {EQ, INT_EQ}, {NE, INT_NE}, {LT, INT_LT},
-            {LE, INT_LE}, {GT, INT_GT}, {GE, INT_GE},
-            {NEG, INT_NEG}, {FLOAT, I2F}, {CHAR, I2C}
-    };
-
-    final static String floatMap[][] = {
-            {PLUS, FLOAT_PLUS}, {MINUS, FLOAT_MINUS},
-            {TIMES, FLOAT_TIMES}, {DIV, FLOAT_DIV},
-            {EQ, FLOAT_EQ}, {NE, FLOAT_NE}, {LT, FLOAT_LT},
-            {LE, FLOAT_LE}, {GT, FLOAT_GT}, {GE, FLOAT_GE},
-            {NEG, FLOAT_NEG}, {INT, F2I}
-    };
-
-    final static String charMap[][] = {
-            {EQ, CHAR_EQ}, {NE, CHAR_NE}, {LT, CHAR_LT},
-            {LE, CHAR_LE}, {GT, CHAR_GT}, {GE, CHAR_GE},
-            {INT, C2I}
-    };
-
-    final static String boolMap[][] = {
-            {AND, AND}, {OR, OR},
-            {EQ, BOOL_EQ}, {NE, BOOL_NE}, {LT, BOOL_LT},
-            {LE, BOOL_LE}, {GT, BOOL_GT}, {GE, BOOL_GE}
-    };
-
-    final static private Operator map(String[][] tmap, String op) {
-        for (int i = 0; i < tmap.length; i++)
-            if (tmap[i][0].equals(op))
-                return new Operator(tmap[i][1]);
-        assert false : "should never reach here";
-        return null;
+        return code == Code.I2C;
     }
 
-    final static public Operator intMap(String op) {
-        return map(intMap, op);
+    // The typed variant of each operator for int, float, char and bool
+    // operands, indexed by opcode; null where there is none
+    private final static Operator[] intMap = typed(new Code[][]{
+            {Code.PLUS, Code.INT_PLUS}, {Code.MINUS, Code.INT_MINUS},
+            {Code.TIMES, Code.INT_TIMES}, {Code.DIV, Code.INT_DIV}, {Code.MOD, Code.INT_MOD},
+            {Code.EQ, Code.INT_EQ}, {Code.NE, Code.INT_NE}, {Code.LT, Code.INT_LT},
+            {Code.LE, Code.INT_LE}, {Code.GT, Code.INT_GT}, {Code.GE, Code.INT_GE},
+            {Code.NEG, Code.INT_NEG}, {Code.FLOAT, Code.I2F}, {Code.CHAR, Code.I2C}
+    });
+
+    private final static Operator[] floatMap = typed(new Code[][]{
+            {Code.PLUS, Code.FLOAT_PLUS}, {Code.MINUS, Code.FLOAT_MINUS},
+            {Code.TIMES, Code.FLOAT_TIMES}, {Code.DIV, Code.FLOAT_DIV},
+            {Code.EQ, Code.FLOAT_EQ}, {Code.NE, Code.FLOAT_NE}, {Code.LT, Code.FLOAT_LT},
+            {Code.LE, Code.FLOAT_LE}, {Code.GT, Code.FLOAT_GT}, {Code.GE, Code.FLOAT_GE},
+            {Code.NEG, Code.FLOAT_NEG}, {Code.INT, Code.F2I}
+    });
+
+    private final static Operator[] charMap = typed(new Code[][]{
+            {Code.EQ, Code.CHAR_EQ}, {Code.NE, Code.CHAR_NE}, {Code.LT, Code.CHAR_LT},
+            {Code.LE, Code.CHAR_LE}, {Code.GT, Code.CHAR_GT}, {Code.GE, Code.CHAR_GE},
+            {Code.INT, Code.C2I}
+    });
+
+    private final static Operator[] boolMap = typed(new Code[][]{
+            {Code.AND, Code.AND}, {Code.OR, Code.OR},
+            {Code.EQ, Code.BOOL_EQ}, {Code.NE, Code.BOOL_NE}, {Code.LT, Code.BOOL_LT},
+            {Code.LE, Code.BOOL_LE}, {Code.GT, Code.BOOL_GT}, {Code.GE, Code.BOOL_GE}
+    });
+
+    private static Operator[] typed(Code[][] pairs) {
+        Operator[] map = new Operator[Code.values().length];
+        for (Code[] pair : pairs)
+            map[pair[0].ordinal()] = of(pair[1]);
+        return map;
     }
 
-    final static public Operator floatMap(String op) {
-        return map(floatMap, op);
+    Operator intMap() {
+        return intMap[code.ordinal()];
     }
 
-    final static public Operator charMap(String op) {
-        return map(charMap, op);
+    Operator floatMap() {
+        return floatMap[code.ordinal()];
     }
 
-    final static public Operator boolMap(String op) {
-        return map(boolMap, op);
+    Operator charMap() {
+        return charMap[code.ordinal()];
+    }
+
+    Operator boolMap() {
+        return boolMap[code.ordinal()];
     }
 
     public void display(int k) {
@@ -728,4 +809,4 @@ class Operator {
         for (int w = 0; w < k; ++w) System.out.print("\t");
         System.out.println(getClass().toString().substring(6) + ": " + val);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Keeps the transformed Program of a source file in a binary file next
+// to it (fib.cpp.txt -> fib.cpp.txt.ast), so that later runs on an
+// unchanged source skip lexing, parsing, checking and transforming.
+// An entry holds a SHA-256 of Compiler.VERSION, every class file of the
+// compiler (the jar or class directory it was loaded from) and the source
+// text; any other key is a miss and the source is compiled again and the
+// entry rewritten.  If the compiler's classes cannot all be read, there is
+// no key, and every load compiles without the cache.
+// Usage: java AstCache <source file>
+
+public class AstCache {
+
+    private static final int MAGIC = 0x434c4954; // "CLIT"
+    private static final String SUFFIX = ".ast";
+
+    private static byte[] compilerKey;
+    private static boolean keyed;        // compilerKey was computed, or failed
+    private static final AtomicInteger hits = new AtomicInteger();
+
+    public static Program load(String fileName) throws IOException {
+        return load(Paths.get(fileName));
+    }
+
+    // The transformed Program of the source, or null after printing its
+    // diagnostics if it does not compile.
+    public static Program load(Path source) throws IOException {
+        byte[] text = Files.readAllBytes(source);
+        byte[] key = key(text);
+        Path cache = source.resolveSibling(source.getFileName() + SUFFIX);
+        Program cached = key == null ? null : read(cache, key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompileResult result = Compiler.compile(new String(text, "ISO-8859-1"));
+        if (!result.ok()) {
+            result.printDiagnostics(System.err, source.toString());
+            return null;
+        }
+        Program out = result.output();
+        out.lines = result.program().lines;
+        if (key != null)
+            write(cache, key, CompactAst.of(out));
+        return out;
+    }
+
+    public static int hits() { // loads answered from a cache file
+        return hits.get();
+    }
+
+    private static Program read(Path cache, byte[] key) {
+        try {
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(cache));
+            byte[] stored = new byte[key.length];
+            if (b.getInt() != MAGIC) return null;
+            b.get(stored);
+            if (!Arrays.equals(stored, key)) return null;
+            return CompactAst.fromBytes(b).toProgram();
+        } catch (IOException | RuntimeException e) { // missing, stale or damaged
+            return null;
+        }
+    }
+
+    private static void write(Path cache, byte[] key, CompactAst ast) {
+        // to a temporary file first, so readers never see half an entry
+        try {
+            byte[] body = ast.toBytes();
+            ByteBuffer b = ByteBuffer.allocate(4 + key.length + body.length);
+            b.putInt(MAGIC).put(key).put(body);
+            Path tmp = Files.createTempFile(cache.toAbsolutePath().getParent(), ".ast", ".tmp");
+            Files.write(tmp, b.array());
+            Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // a read-only directory just means no caching
+        }
+    }
+
+    private static byte[] key(byte[] text) { // null: no caching
+        byte[] compiler = compilerKey();
+        if (compiler == null) return null;
+        MessageDigest sha = sha256();
+        sha.update(compiler);
+        sha.update(text);
+        return sha.digest();
+    }
+
+    private static synchronized byte[] compilerKey() {
+        if (keyed) return compilerKey;
+        keyed = true;
+        try {
+            MessageDigest sha = sha256();
+            sha.update(Compiler.VERSION.getBytes());
+            Path code = Paths.get(AstCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(code)) {
+                List<Path> classes;
+                try (Stream<Path> files = Files.walk(code)) {
+                    classes = files.filter(f -> f.toString().endsWith(".class")).sorted()
+                            .collect(Collectors.toList());
+                }
+                for (Path f : classes) {
+                    sha.update(code.relativize(f).toString().getBytes());
+                    sha.update(Files.readAllBytes(f));
+                }
+            } else
+                sha.update(Files.readAllBytes(code));    // a jar
+            compilerKey = sha.digest();
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            compilerKey = null;     // no code source, or part of it unreadable
+        }
+        return compilerKey;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        Program program = load(args[0]);
+        if (program == null)
+            System.exit(1);
+        Semantics semantics = new Semantics();
+        State state = semantics.M(program);
+        System.out.println("Final State");
+        state.display();
+    }
+}
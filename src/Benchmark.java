@@ -0,0 +1,943 @@
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Throughput benchmarks for the front end and the interpreter.
+// Usage: java Benchmark <name> <source file> [options]
+
+public class Benchmark {
+
+    private static final int ROUNDS = 10;
+
+    // lex <file> [copies] [chunk size]: sequential vs parallel tokenizing
+    // of the file repeated copies times
+    static void lex(String file, int copies, int chunkSize) throws Exception {
+        String text = Files.readString(Paths.get(file)) + "\n";
+        String source = text.repeat(copies);
+        ParallelLexer parallel = new ParallelLexer(chunkSize);
+
+        TokenArray expected = TokenArray.of(Lexer.forSource(source));
+        check(parallel.tokenize(source).sameTokens(expected),
+                "parallel token sequence differs from Lexer.next()");
+
+        double seq = best(() -> TokenArray.of(Lexer.forSource(source)));
+        double par = best(() -> parallel.tokenize(source));
+        double mb = source.length() / 1e6;
+        System.out.printf("%d tokens, %.1f MB%n", expected.size(), mb);
+        System.out.printf("sequential: %8.1f ms  %7.1f MB/s%n", seq, mb / seq * 1000);
+        System.out.printf("parallel:   %8.1f ms  %7.1f MB/s  (chunk %d, %d threads)%n",
+                par, mb / par * 1000, chunkSize, parallel.parallelism());
+    }
+
+    // parse <file> [copies] [task size]: Parser.program() vs ParallelParser
+    // on the tokens of the file repeated copies times
+    static void parse(String file, int copies, int taskSize) throws Exception {
+        String text = Files.readString(Paths.get(file)) + "\n";
+        String source = text.repeat(copies);
+        TokenArray tokens = new ParallelLexer().tokenize(source);
+        ParallelParser parallel = new ParallelParser(taskSize);
+
+        Program expected = new Parser(tokens).program();
+        Program actual = parallel.parse(tokens);
+        check(actual.functions.size() == expected.functions.size()
+                        && shown(actual).equals(shown(expected)),
+                "parallel parse differs from Parser.program()");
+        for (int i = 0; i < expected.functions.size(); i++)
+            check(actual.functions.get(i).span() == expected.functions.get(i).span(),
+                    "function span differs");
+
+        double seq = best(() -> {
+            tokens.rewind();
+            new Parser(tokens).program();
+        });
+        double par = best(() -> parallel.parse(tokens));
+        System.out.printf("%d tokens, %d functions%n", tokens.size(), expected.functions.size());
+        System.out.printf("sequential: %8.1f ms%n", seq);
+        System.out.printf("parallel:   %8.1f ms  (task %d tokens, %d threads)%n",
+                par, taskSize, parallel.parallelism());
+    }
+
+    // ast <file> [copies]: heap held by the object AST vs CompactAst for
+    // the file repeated copies times, and the cost of converting
+    static void ast(String file, int copies) throws Exception {
+        String source = (Files.readString(Paths.get(file)) + "\n").repeat(copies);
+        Program program = new Parser(Lexer.forSource(source)).program();
+        CompactAst compact = CompactAst.of(program);
+        check(shown(compact.toProgram()).equals(shown(program)),
+                "CompactAst round trip differs");
+        int[] nodes = new int[1];
+        compact.walk(compact.root(), (ast, n, depth) -> {
+            nodes[0]++;
+            return true;
+        });
+
+        long before = heap();
+        Program[] objects = {new Parser(Lexer.forSource(source)).program()};
+        long objectBytes = heap() - before;
+        CompactAst[] arrays = {CompactAst.of(objects[0])};
+        long compactBytes = heap() - before - objectBytes;
+
+        double to = best(() -> CompactAst.of(objects[0]));
+        double from = best(() -> arrays[0].toProgram());
+        System.out.printf("%d nodes visited, %d functions%n", nodes[0], objects[0].functions.size());
+        System.out.printf("objects: %8.1f MB%n", objectBytes / 1e6);
+        System.out.printf("compact: %8.1f MB  (arrays %.1f MB)%n", compactBytes / 1e6, arrays[0].bytes() / 1e6);
+        System.out.printf("to compact %.1f ms, back %.1f ms%n", to, from);
+    }
+
+    private static long heap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // expressions [statements] [depth]: parse a generated function of
+    // long operator chains by recursive descent and by precedence climbing,
+    // and one expression nested depth parentheses deep by climbing
+    static void expressions(int statements, int depth) {
+        StringBuilder chains = new StringBuilder("int main() {\n int x; int y;\n");
+        String[] ops = {"+", "-", "*", "/", "<", "==", "&&", "||"};
+        for (int i = 0; i < statements; i++) {
+            chains.append(" x = ");
+            for (int j = 0; j < 40; j++)
+                chains.append(j % 3 == 0 ? "-y" : "x").append(' ').append(ops[(i + j) % ops.length]).append(' ');
+            chains.append("(1 + y) * 2;\n");
+        }
+        String source = chains.append("}\n").toString();
+        String nested = "int main() {\n int x;\n x = " + "(".repeat(depth) + "x" + ")".repeat(depth) + ";\n}\n";
+
+        TokenArray tokens = TokenArray.of(Lexer.forSource(source));
+        for (boolean climbing : new boolean[] {false, true}) {
+            double chain = best(() -> {
+                tokens.rewind();
+                new Parser(tokens, climbing).program();
+            });
+            System.out.printf("%d tokens of operator chains, %s: %.1f ms%n", tokens.size(),
+                    climbing ? "climbing" : "descent", chain);
+        }
+        Program p = new Parser(Lexer.forSource(nested), true).program();
+        check(p.functions.size() == 1, "nested expression did not parse");
+        CompactAst compact = CompactAst.of(p);
+        check(java.util.Arrays.equals(CompactAst.of(compact.toProgram()).toBytes(), compact.toBytes()),
+                "nested expression CompactAst round trip differs");
+        System.out.printf("%d nested parentheses parsed and converted to and from CompactAst%n", depth);
+    }
+
+    // typing [nodes]: StaticTypeCheck.V and TypeTransformer.T over
+    // left-nested chains of growing depth, about nodes operators in all;
+    // time per operator should not grow with the depth.  Each depth gets
+    // at least 8 chains, so the recursive walks are warm (and their frames
+    // small) before the deeper chains
+    static void typing(int nodes) {
+        for (int depth = 250; depth <= Math.min(8000, nodes / 8); depth *= 2) {
+            StringBuilder b = new StringBuilder("int main() {\n int x;\n");
+            for (int i = 0; i < nodes / depth; i++)
+                b.append(" x = x").append(" + x * 2".repeat(depth / 2)).append(";\n");
+            Program p = new Parser(Lexer.forSource(b.append("}\n"))).program();
+            StaticTypeCheck checker = new StaticTypeCheck();
+            TypeTransformer transformer = new TypeTransformer(checker);
+            checker.resolve(p);
+            TypeMap globals = StaticTypeCheck.typing(p.globals);
+            double time = best(() -> {
+                checker.reset();
+                checker.resolve(p);
+                checker.V(p, globals);
+                transformer.reset();
+                transformer.T(p, globals);
+            });
+            check(!checker.diagnostics().hasErrors(), "chains do not type check");
+            System.out.printf("depth %5d: %8.2f ms  %6.1f ns/operator%n", depth, time,
+                    time * 1e6 / (nodes / depth * depth));
+        }
+    }
+
+    // symbols [functions]: Compiler.compile on generated programs with as
+    // many globals as functions, doubling up to functions; time per
+    // function should stay flat
+    static void symbols(int functions) {
+        for (int n = functions / 8; n <= functions; n *= 2) {
+            StringBuilder globals = new StringBuilder();
+            for (int i = 0; i < n; i++)
+                globals.append("int g").append(i).append(";\n");
+            String source = globals + program(n);
+            check(Compiler.compile(source).ok(), "generated program does not compile");
+            double time = best(() -> Compiler.compile(source));
+            System.out.printf("%6d functions: %8.1f ms  %6.1f us/function%n", n, time, time * 1e3 / n);
+        }
+    }
+
+    // lookups [count]: look up count variables, as the parser makes them
+    // (each its own Variable and name string), in a function scope chained
+    // to the globals, by name and by resolved symbol
+    static void lookups(int count) {
+        StaticTypeCheck checker = new StaticTypeCheck();
+        Declarations globals = new Declarations(), locals = new Declarations();
+        for (int i = 0; i < 64; i++) {
+            globals.add(new VariableDeclare(new Variable("global" + i), Type.INT));
+            locals.add(new VariableDeclare(new Variable("local" + i), Type.FLOAT));
+        }
+        Function f = new Function(Type.VOID, "f", new Declarations(), locals, new Block());
+        Program p = new Program(globals, new Functions());
+        p.functions.add(f);
+        java.util.Random random = new java.util.Random(42);
+        Variable[] byName = new Variable[count], bySymbol = new Variable[count];
+        for (int i = 0; i < count; i++) {
+            String name = (random.nextBoolean() ? "global" : "local") + random.nextInt(64);
+            byName[i] = new Variable(new String(name));
+            bySymbol[i] = new Variable(new String(name));
+        }
+        checker.resolve(p);
+        for (Variable v : bySymbol)
+            v.symbol = checker.symbols().intern(v.id);
+        TypeMap resolved = StaticTypeCheck.typing(f, StaticTypeCheck.typing(globals));
+        int[] found = new int[1];
+        double names = best(() -> {
+            for (Variable v : byName)
+                found[0] += resolved.get(v) == Type.INT ? 1 : 0;
+        });
+        double symbols = best(() -> {
+            for (Variable v : bySymbol)
+                found[0] += resolved.get(v) == Type.INT ? 1 : 0;
+        });
+        System.out.printf("%d lookups (%d)%n", count, found[0] & 1);
+        System.out.printf("by name:   %8.2f ms%n", names);
+        System.out.printf("by symbol: %8.2f ms%n", symbols);
+    }
+
+    // reachable [functions]: compile a library of that many functions
+    // whose main calls four of them, checking everything vs only what
+    // main reaches; the reachable output must be the full output's
+    // functions that main reaches
+    static void reachable(int functions) {
+        String library = program(functions);
+        String source = library.substring(0, library.indexOf("int main()"))
+                + "int main() {\n    int r;\n    scale = 0.5;\n"
+                + "    r = f0(1) + f1(2) + f2(3) + f3(4);\n    total = r;\n}\n";
+        Compiler all = new Compiler(), reached = new Compiler(null, true);
+        CompileResult full = all.run(source, false), lazy = reached.run(source, false);
+        check(full.ok() && lazy.ok(), "library does not compile");
+        Functions called = new Functions();
+        for (Function f : full.output().functions)
+            if (f.id.equals("main") || f.id.matches("f[0-3]"))
+                called.add(f);
+        check(shown(new Program(full.output().globals, called)).equals(shown(lazy.output())),
+                "reachable output differs");
+        double allTime = best(() -> all.run(source, false));
+        double reachedTime = best(() -> reached.run(source, false));
+        System.out.printf("%d functions, %d reached from main%n", functions + 1, lazy.output().functions.size());
+        System.out.printf("all:       %8.1f ms%n", allTime);
+        System.out.printf("reachable: %8.1f ms%n", reachedTime);
+    }
+
+    // calls [n]: run a recursive fibonacci(n) in programs with more and
+    // more globals; a call's frame holds only its own variables, so the
+    // time per call should not grow with the globals
+    static void calls(int n) {
+        for (int globals = 10; globals <= 10000; globals *= 10) {
+            StringBuilder b = new StringBuilder("int calls;\n");
+            for (int i = 0; i < globals; i++)
+                b.append("int g").append(i).append(";\n");
+            b.append("int fibonacci(int n) {\n    calls = calls + 1;\n    if (n < 2)\n        return n;\n")
+                    .append("    return fibonacci(n - 1) + fibonacci(n - 2);\n}\n")
+                    .append("int main() {\n    int answer;\n    calls = 0;\n    answer = fibonacci(").append(n)
+                    .append(");\n}\n");
+            CompileResult result = Compiler.compile(b);
+            check(result.ok(), "fibonacci does not compile");
+            State[] state = new State[1];
+            double time = best(() -> state[0] = new Semantics().M(result.output()));
+            int calls = state[0].value("calls").intValue();
+            System.out.printf("%6d globals: %8.1f ms  %6.1f ns/call%n", globals, time, time * 1e6 / calls);
+        }
+    }
+
+    // loop [iterations]: run a counting loop of that many iterations, in
+    // constant stack space, and check where it stopped
+    static void loop(int iterations) {
+        String source = "int main() {\n    int i, n, evens;\n    n = " + iterations + ";\n"
+                + "    i = 0;\n    evens = 0;\n    while (i < n) {\n"
+                + "        if (i % 2 == 0)\n            evens = evens + 1;\n        i = i + 1;\n    }\n}\n";
+        CompileResult result = Compiler.compile(source);
+        check(result.ok(), "counter does not compile");
+        long t0 = System.nanoTime();
+        State state = new Semantics().M(result.output());
+        double time = (System.nanoTime() - t0) / 1e6;
+        check(state.value("i").intValue() == iterations, "loop stopped early");
+        check(state.value("evens").intValue() == (iterations + 1) / 2, "wrong count");
+        System.out.printf("%d iterations: %8.1f ms  %6.1f ns/iteration%n", iterations, time,
+                time * 1e6 / iterations);
+    }
+
+    // values <file>...: run each program with Semantics (a Value object
+    // per result) and with Evaluator (unboxed); bytes allocated per run
+    // and time, after checking that both leave the same final state
+    static void values(String[] files) throws Exception {
+        System.out.printf("%-24s %14s %14s %10s %10s%n", "", "boxed bytes", "unboxed bytes",
+                "boxed ms", "unboxed ms");
+        for (String file : files) {
+            CompileResult result = Compiler.compileFile(file);
+            check(result.ok(), file + " does not compile");
+            Program p = result.output();
+            check(shown(new Semantics().M(p)).equals(shown(new Evaluator().run(p))),
+                    file + ": final states differ");
+            Runnable boxed = () -> new Semantics().M(p), unboxed = () -> new Evaluator().run(p);
+            System.out.printf("%-24s %14d %14d %10.2f %10.2f%n", Paths.get(file).getFileName(),
+                    allocated(boxed), allocated(unboxed), best(boxed), best(unboxed));
+        }
+    }
+
+    // nodes <file>...: run each program with the Semantics tree walker and
+    // lowered to executable nodes (lowering not timed), after checking
+    // that both leave the same final state.  nodes [scale] does the same
+    // for the scaled programs of bytecode.
+    static void nodes(String[] args) throws Exception {
+        String[][] programs;
+        if (args.length == 0 || args[0].matches("\\d+"))
+            programs = scaled(arg(args, 0, 100000));
+        else {
+            programs = new String[args.length][];
+            for (int i = 0; i < args.length; i++)
+                programs[i] = new String[] {Paths.get(args[i]).getFileName().toString(),
+                        new String(Files.readAllBytes(Paths.get(args[i])), "ISO-8859-1")};
+        }
+        System.out.printf("%-24s %12s %12s %8s%n", "", "walker ms", "nodes ms", "speedup");
+        for (String[] program : programs) {
+            CompileResult result = Compiler.compile(program[1]);
+            check(result.ok(), program[0] + " does not compile");
+            Program p = result.output();
+            Executable lowered = Executable.lower(p);
+            check(shown(new Semantics().M(p)).equals(shown(lowered.run())), program[0] + ": final states differ");
+            double walker = best(() -> new Semantics().M(p));
+            double nodes = best(lowered::run);
+            System.out.printf("%-24s %12.2f %12.2f %7.1fx%n", program[0], walker, nodes, walker / nodes);
+        }
+    }
+
+    // bytecode [scale]: fibonacci, factorial and newton of the test
+    // programs, each run scale times over, with the Semantics tree walker,
+    // the executable nodes and the bytecode VM (compiling not timed),
+    // after checking that all three leave the same final state
+    static void bytecode(int scale) {
+        String[][] programs = scaled(scale);
+        System.out.printf("%-12s %12s %12s %12s %8s%n", "", "walker ms", "nodes ms", "bytecode ms", "speedup");
+        for (String[] program : programs) {
+            CompileResult result = Compiler.compile(program[1]);
+            check(result.ok(), program[0] + " does not compile");
+            Program p = result.output();
+            Executable lowered = Executable.lower(p);
+            VM vm = new VM(Bytecode.compile(p));
+            String state = shown(new Semantics().M(p));
+            check(state.equals(shown(lowered.run())) && state.equals(shown(vm.run())),
+                    program[0] + ": final states differ");
+            double walker = best(() -> new Semantics().M(p));
+            double nodes = best(lowered::run);
+            double bytecode = best(vm::run);
+            System.out.printf("%-12s %12.2f %12.2f %12.2f %7.1fx%n", program[0], walker, nodes, bytecode,
+                    walker / bytecode);
+        }
+    }
+
+    // fibonacci, factorial and newton of the test programs, each run scale
+    // times over: {name, source}
+    private static String[][] scaled(int scale) {
+        return new String[][] {
+            {"fibonacci", "int fibonacci (int n) {\n    int fib0, fib1, temp, k;\n"
+                    + "    fib0 = 0; fib1 = 1; k = n;\n    while (k > 0) {\n        temp = fib0;\n"
+                    + "        fib0 = fib1;\n        fib1 = fib0 + temp;\n        k = k - 1;\n    }\n"
+                    + "    return fib0;\n}\n\nint main () {\n    int answer, i;\n    i = 0;\n"
+                    + "    while (i < " + scale + ") {\n        answer = fibonacci(40);\n        i = i + 1;\n"
+                    + "    }\n}\n"},
+            {"factorial", "int main ( ) {\n    int n, i, f, j;\n    j = 0;\n    while (j < " + scale + ") {\n"
+                    + "        n = 12;\n        i = 1;\n        f = 1;\n        while (i < n) {\n"
+                    + "            i = i + 1;\n            f = f * i;\n        }\n        j = j + 1;\n"
+                    + "    }\n}\n"},
+            {"newton", "int main() {\n    float a, x, result;\n    int j;\n    j = 0;\n"
+                    + "    while (j < " + scale + ") {\n        a = 4.0 + float(j % 100);\n        x = 1.0;\n"
+                    + "        while (x*x > a+0.0001 || x*x < a-0.0001 )\n            x = (x + a/x)/2.0;\n"
+                    + "        result = x;\n        j = j + 1;\n    }\n}\n"},
+        };
+    }
+
+    // returns: small programs whose functions return undefined values or
+    // fall off their end, each run with Semantics, Evaluator, the
+    // executable nodes and the bytecode VM; all four must leave the same
+    // final state or fail with the same error
+    static void returns() {
+        String[][] programs = {
+            {"undefined int", "int f() {\n    int x;\n    return x;\n}\n"
+                    + "int main() {\n    int y;\n    y = f();\n}\n"},
+            {"undefined float", "float f() {\n    float x;\n    return x;\n}\n"
+                    + "int main() {\n    float y;\n    y = 1.5;\n    y = f();\n}\n"},
+            {"undefined bool", "bool f(int n) {\n    bool b;\n    if (n > 0) b = true;\n    return b;\n}\n"
+                    + "int main() {\n    bool y, z;\n    y = f(1);\n    z = f(0);\n}\n"},
+            {"undefined global", "char g;\nchar f() {\n    return g;\n}\n"
+                    + "int main() {\n    char c;\n    c = f();\n}\n"},
+            {"passed on", "int f() {\n    int x;\n    return x;\n}\nint h() {\n    return f();\n}\n"
+                    + "int main() {\n    int y;\n    y = h();\n}\n"},
+            {"as argument", "int f() {\n    int x;\n    return x;\n}\nint id(int a) {\n    return a;\n}\n"
+                    + "int main() {\n    int y;\n    y = id(f());\n}\n"},
+            {"from a loop", "int f(int n) {\n    int x;\n    while (n > 0) {\n        return x;\n    }\n"
+                    + "    return 1;\n}\nint main() {\n    int y, z;\n    y = f(1);\n    z = f(0);\n}\n"},
+            {"used", "int f() {\n    int x;\n    return x;\n}\n"
+                    + "int main() {\n    int y;\n    y = f() + 1;\n}\n"},
+            {"no return", "int f(int n) {\n    if (n > 0) return 1;\n}\n"
+                    + "int main() {\n    int r;\n    r = f(0);\n}\n"},
+            {"no float return", "float f(int n) {\n    while (n > 0) {\n        return 1.5;\n    }\n}\n"
+                    + "int main() {\n    float r;\n    r = f(1);\n    r = f(0) * 2.0;\n}\n"},
+            {"no bool return", "bool f(int n) {\n    if (n > 0) return true;\n}\n"
+                    + "int main() {\n    bool b;\n    b = f(1) && f(0);\n}\n"},
+            {"void", "int g;\nvoid s(int n) {\n    if (n > 1) g = n;\n}\n"
+                    + "int main() {\n    s(1);\n    s(2);\n}\n"},
+        };
+        for (String[] program : programs) {
+            CompileResult result = Compiler.compile(program[1]);
+            check(result.ok(), program[0] + " does not compile");
+            Program p = result.output();
+            String expected = outcome(() -> new Semantics().M(p));
+            check(expected.equals(outcome(() -> new Evaluator().run(p))), program[0] + ": Evaluator differs");
+            check(expected.equals(outcome(() -> Executable.lower(p).run())), program[0] + ": nodes differ");
+            check(expected.equals(outcome(() -> new VM(Bytecode.compile(p)).run())), program[0] + ": VM differs");
+            System.out.printf("%-20s %s%n", program[0], expected.replaceAll("\\s+", " ").trim());
+        }
+    }
+
+    private static String outcome(java.util.function.Supplier<State> run) { // final state, or the error
+        try {
+            return shown(run.get());
+        } catch (IllegalArgumentException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    private static long allocated(Runnable r) { // bytes the current thread allocates in r
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        r.run(); // warm up, so class loading is not counted
+        long before = threads.getThreadAllocatedBytes(id);
+        r.run();
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+
+    // sessions [programs] [threads]: compile that many different programs
+    // sequentially, then all at once on a pool, one Compiler session per
+    // task; every concurrent result must match the sequential one
+    static void sessions(int programs, int threads) throws Exception {
+        String[] sources = new String[programs];
+        for (int i = 0; i < programs; i++) {
+            String source = program(1 + i % 25).replace("x = 1.5", "x = " + i + ".5");
+            if (i % 7 == 0) // some with type errors
+                source += "int broken() {\n    int b;\n    b = true;\n    return b + 1.0;\n}\n";
+            sources[i] = source;
+        }
+        String[] expected = new String[programs];
+        long t0 = System.nanoTime();
+        for (int i = 0; i < programs; i++)
+            expected[i] = result(Compiler.compile(sources[i]));
+        double sequential = (System.nanoTime() - t0) / 1e6;
+
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        try {
+            java.util.List<java.util.concurrent.Future<String>> results = new java.util.ArrayList<>();
+            t0 = System.nanoTime();
+            for (String source : sources)
+                results.add(pool.submit(() -> result(new Compiler().run(source, false))));
+            int failed = 0;
+            for (int i = 0; i < programs; i++)
+                if (!results.get(i).get().equals(expected[i]))
+                    failed++;
+            double concurrent = (System.nanoTime() - t0) / 1e6;
+            check(failed == 0, failed + " of " + programs + " concurrent results differ");
+            System.out.printf("%d programs, all concurrent results match%n", programs);
+            System.out.printf("sequential:         %8.1f ms%n", sequential);
+            System.out.printf("%2d threads:         %8.1f ms%n", threads, concurrent);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // check [functions] [threads]: a Compiler session checking and
+    // transforming functions sequentially vs on a pool of threads
+    static void checking(int functions, int threads) {
+        String source = program(functions).replace("return s;", "return x;");
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(threads);
+        try {
+            Compiler sequential = new Compiler();
+            Compiler parallel = new Compiler(pool);
+            check(result(parallel.run(source, false)).equals(result(sequential.run(source, false))),
+                    "parallel diagnostics differ");
+            String failing = program(functions).replace("int f" + functions / 2 + "(",
+                    "int neg() {\n    int a;\n    a = -a;\n    return a;\n}\nint f" + functions / 2 + "(");
+            check(result(parallel.run(failing, false)).equals(result(sequential.run(failing, false))),
+                    "parallel diagnostics differ after an internal error");
+            String valid = program(functions);
+            check(result(parallel.run(valid, false)).equals(result(sequential.run(valid, false))),
+                    "parallel output differs");
+            double seq = best(() -> sequential.run(valid, false));
+            double par = best(() -> parallel.run(valid, false));
+            System.out.printf("%d functions%n", functions);
+            System.out.printf("sequential: %8.1f ms%n", seq);
+            System.out.printf("parallel:   %8.1f ms  (%d threads)%n", par, threads);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String result(CompileResult r) { // thread-safe fingerprint
+        StringBuilder b = new StringBuilder();
+        for (Diagnostics.Diagnostic d : r.diagnostics().errors())
+            b.append(d.format(r.program().lines)).append('\n');
+        if (r.ok())
+            b.append(java.util.Base64.getEncoder().encodeToString(CompactAst.of(r.output()).toBytes()));
+        return b.toString();
+    }
+
+    // operators [count]: classify and apply typed int operators by their
+    // opcode vs by their name, as Operator and Semantics did before
+    static void operators(int count) {
+        Operator.Code[] codes = {Operator.Code.INT_PLUS, Operator.Code.INT_MINUS, Operator.Code.INT_TIMES,
+                Operator.Code.INT_LT, Operator.Code.INT_LE, Operator.Code.INT_EQ, Operator.Code.INT_NE,
+                Operator.Code.INT_GT, Operator.Code.INT_GE, Operator.Code.INT_DIV};
+        java.util.Random random = new java.util.Random(42);
+        Operator[] ops = new Operator[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            ops[i] = Operator.of(codes[random.nextInt(codes.length)]);
+            names[i] = new String(ops[i].val); // as parsed: not the interned constant
+        }
+        long[] sink = new long[1];
+        double byName = best(() -> {
+            long acc = 0;
+            for (int i = 0; i < count; i++)
+                acc += (relationalByName(names[i]) ? 1 : 0) + applyByName(names[i], i, 7);
+            sink[0] += acc;
+        });
+        double byCode = best(() -> {
+            long acc = 0;
+            for (int i = 0; i < count; i++)
+                acc += (ops[i].RelationalOp() ? 1 : 0) + applyByCode(ops[i], i, 7);
+            sink[0] += acc;
+        });
+        System.out.printf("%d operators (%d)%n", count, sink[0] & 1);
+        System.out.printf("by name: %8.2f ms%n", byName);
+        System.out.printf("by code: %8.2f ms%n", byCode);
+    }
+
+    private static boolean relationalByName(String val) { // the former Operator.RelationalOp
+        return val.equals(Operator.LT) || val.equals(Operator.LE) || val.equals(Operator.EQ)
+                || val.equals(Operator.NE) || val.equals(Operator.GT) || val.equals(Operator.GE)
+                || val.equals(Operator.FLOAT_LT) || val.equals(Operator.FLOAT_LE)
+                || val.equals(Operator.FLOAT_EQ) || val.equals(Operator.FLOAT_NE)
+                || val.equals(Operator.FLOAT_GT) || val.equals(Operator.FLOAT_GE)
+                || val.equals(Operator.INT_LT) || val.equals(Operator.INT_LE)
+                || val.equals(Operator.INT_EQ) || val.equals(Operator.INT_NE)
+                || val.equals(Operator.INT_GT) || val.equals(Operator.INT_GE)
+                || val.equals(Operator.CHAR_LT) || val.equals(Operator.CHAR_LE)
+                || val.equals(Operator.CHAR_EQ) || val.equals(Operator.CHAR_NE)
+                || val.equals(Operator.CHAR_GT) || val.equals(Operator.CHAR_GE)
+                || val.equals(Operator.BOOL_LT) || val.equals(Operator.BOOL_LE)
+                || val.equals(Operator.BOOL_EQ) || val.equals(Operator.BOOL_NE)
+                || val.equals(Operator.BOOL_GT) || val.equals(Operator.BOOL_GE);
+    }
+
+    private static int applyByName(String val, int a, int b) {
+        return switch (val) {
+            case Operator.INT_PLUS -> a + b;
+            case Operator.INT_MINUS -> a - b;
+            case Operator.INT_TIMES -> a * b;
+            case Operator.INT_DIV -> a / b;
+            case Operator.INT_EQ -> a == b ? 1 : 0;
+            case Operator.INT_NE -> a != b ? 1 : 0;
+            case Operator.INT_LT -> a < b ? 1 : 0;
+            case Operator.INT_LE -> a <= b ? 1 : 0;
+            case Operator.INT_GT -> a > b ? 1 : 0;
+            case Operator.INT_GE -> a >= b ? 1 : 0;
+            default -> throw new IllegalArgumentException(val);
+        };
+    }
+
+    private static int applyByCode(Operator op, int a, int b) {
+        return switch (op.code) {
+            case INT_PLUS -> a + b;
+            case INT_MINUS -> a - b;
+            case INT_TIMES -> a * b;
+            case INT_DIV -> a / b;
+            case INT_EQ -> a == b ? 1 : 0;
+            case INT_NE -> a != b ? 1 : 0;
+            case INT_LT -> a < b ? 1 : 0;
+            case INT_LE -> a <= b ? 1 : 0;
+            case INT_GT -> a > b ? 1 : 0;
+            case INT_GE -> a >= b ? 1 : 0;
+            default -> throw new IllegalArgumentException(op.val);
+        };
+    }
+
+    // A valid program of n small functions and a main that calls them
+    static String program(int n) {
+        StringBuilder b = new StringBuilder("int total;\nfloat scale;\n");
+        for (int k = 0; k < n; k++)
+            b.append("int f").append(k).append("(int n) {\n")
+                    .append("    int i; int s; float x;\n")
+                    .append("    s = 0; i = 0; x = 1.5;\n")
+                    .append("    while (i < n) {\n")
+                    .append("        if (i % 2 == 0 && x > 0.5) s = s + i * ").append(k).append(";\n")
+                    .append("        else s = s - 1;\n")
+                    .append("        x = x * scale + float(i);\n")
+                    .append("        i = i + 1;\n")
+                    .append("    }\n")
+                    .append("    return s;\n")
+                    .append("}\n");
+        b.append("int main() {\n    int r;\n    r = 0;\n    scale = 0.5;\n");
+        for (int k = 0; k < n; k++)
+            b.append("    r = r + f").append(k).append("(").append(k % 10).append(");\n");
+        return b.append("    total = r;\n}\n").toString();
+    }
+
+    // edits [functions] [edits]: apply random edits to a generated program
+    // with IncrementalParser, checking after each one that leaves the text
+    // free of syntax errors that its program, spans and line table are
+    // those of a full reparse; then time an edit in the middle of
+    // programs of growing size, which should not grow with them
+    static void edits(int functions, int count) {
+        String[] snippets = {"", " ", "\n", "// c\n", "x", "1", ";", "+ 2", "i", "{", "}", "(", "'a'", "9.",
+                "int g;\n", "float h, k;\n", "s = s + 1;\n", "int q() { return 1; }\n"};
+        java.util.Random random = new java.util.Random(42);
+        IncrementalParser incremental = new IncrementalParser(program(functions));
+        int compared = 0;
+        for (int i = 0; i < count; i++) {
+            String text = incremental.text().toString();
+            int offset = random.nextInt(text.length() + 1), removed;
+            String inserted;
+            boolean undo;   // the edit, unless it left the text valid
+            switch (random.nextInt(4)) {
+                case 0 -> {     // a new item or statement after a line
+                    offset = text.lastIndexOf('\n', offset - 1) + 1;
+                    removed = 0;
+                    inserted = snippets[14 + random.nextInt(4)];
+                    undo = false;
+                }
+                case 1 -> {     // a function removed, and often put back
+                    offset = text.indexOf("\nint f", offset);
+                    if (offset < 0) continue;
+                    removed = text.indexOf("\n}\n", offset) + 2 - offset;
+                    inserted = "";
+                    undo = random.nextBoolean();
+                }
+                case 2 -> {     // space or a comment between tokens
+                    offset = text.indexOf(' ', offset);
+                    if (offset < 0) continue;
+                    removed = 0;
+                    inserted = snippets[1 + random.nextInt(3)];
+                    undo = false;
+                }
+                default -> {    // anything
+                    removed = Math.min(random.nextInt(4), text.length() - offset);
+                    inserted = snippets[random.nextInt(snippets.length)];
+                    undo = true;
+                }
+            }
+            int valid = edit(incremental, offset, removed, inserted, i);
+            compared += valid;
+            if (undo || valid == 0)
+                compared += edit(incremental, offset, inserted.length(), text.substring(offset, offset + removed), i);
+        }
+        System.out.printf("%d edits, %d compared with a reparse%n", count, compared);
+
+        for (int n = 1000; n <= 16000; n *= 4) {
+            IncrementalParser p = new IncrementalParser(program(n));
+            String text = p.text().toString();
+            int offset = text.indexOf("s = s - 1;", text.length() / 2);
+            double edit = best(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    p.edit(offset, 0, "x");
+                    p.edit(offset, 1, "");
+                }
+            }) / 2000;
+            double read = best(() -> {
+                for (int i = 0; i < 100; i++) {
+                    p.edit(offset, 0, "x");
+                    p.program();
+                    p.edit(offset, 1, "");
+                    p.program();
+                }
+            }) / 200;
+            System.out.printf("%6d functions: edit %8.4f ms  edit + program() %8.4f ms  (%d reparsed)%n",
+                    n, edit, read, p.reparsed());
+        }
+    }
+
+    // Applies an edit and compares the result with a full reparse, if the
+    // text parses without errors (error recovery may group items
+    // differently); 1 if it did
+    private static int edit(IncrementalParser incremental, int offset, int removed, String inserted, int i) {
+        incremental.edit(offset, removed, inserted);
+        Parser parser = new Parser(Lexer.forSource(incremental.text().toString()));
+        Program expected = parser.program();
+        if (parser.diagnostics().hasErrors())
+            return 0;
+        Program actual = incremental.program();
+        check(shown(actual).equals(shown(expected)), "edit " + i + ": program differs from a reparse");
+        check(spans(actual).equals(spans(expected)), "edit " + i + ": spans differ from a reparse");
+        check(starts(actual.lines).equals(starts(expected.lines)),
+                "edit " + i + ": line table differs from a reparse");
+        return 1;
+    }
+
+    private static java.util.List<Long> spans(Program p) {
+        java.util.List<Long> spans = new java.util.ArrayList<Long>();
+        for (Declaration d : p.globals)
+            spans.add(d.span());
+        for (Function f : p.functions) {
+            spans.add(f.span());
+            for (Declaration d : f.params)
+                spans.add(d.span());
+            for (Declaration d : f.locals)
+                spans.add(d.span());
+            spans(f.body, spans);
+        }
+        return spans;
+    }
+
+    private static void spans(Statement s, java.util.List<Long> spans) {
+        spans.add(s.span());
+        if (s instanceof Assignment) {
+            spans.add(((Assignment) s).target.span());
+            spans(((Assignment) s).source, spans);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            spans(c.test, spans);
+            spans(c.thenBranch, spans);
+            spans(c.elseBranch, spans);
+        } else if (s instanceof Loop) {
+            spans(((Loop) s).test, spans);
+            spans(((Loop) s).body, spans);
+        } else if (s instanceof Block)
+            for (Statement stmt : ((Block) s).statements)
+                spans(stmt, spans);
+        else if (s instanceof Return)
+            spans(((Return) s).retVal, spans);
+        else if (s instanceof CallStatement)
+            for (Expression arg : ((CallStatement) s).args)
+                spans(arg, spans);
+    }
+
+    private static void spans(Expression e, java.util.List<Long> spans) {
+        spans.add(e.span());
+        if (e instanceof Binary) {
+            spans(((Binary) e).term1, spans);
+            spans(((Binary) e).term2, spans);
+        } else if (e instanceof Unary)
+            spans(((Unary) e).term, spans);
+        else if (e instanceof CallExpression)
+            for (Expression arg : ((CallExpression) e).args)
+                spans(arg, spans);
+    }
+
+    private static java.util.List<Integer> starts(LineTable lines) {
+        java.util.List<Integer> starts = new java.util.ArrayList<Integer>();
+        for (int i = 0; i < lines.lines(); i++)
+            starts.add(lines.start(i));
+        return starts;
+    }
+
+    // cache [functions]: full front end vs loading the AstCache entry for
+    // a generated program
+    static void cache(int functions) throws Exception {
+        String source = program(functions);
+        java.nio.file.Path dir = Files.createTempDirectory("astcache");
+        java.nio.file.Path copy = dir.resolve("bench.cpp.txt");
+        Files.writeString(copy, source);
+        try {
+            Program compiled = AstCache.load(copy);   // miss: compiles and writes
+            Program loaded = AstCache.load(copy);
+            check(AstCache.hits() == 1, "cache entry was not used");
+            check(shown(loaded).equals(shown(compiled)), "cached Program differs");
+
+            double compile = best(() -> Compiler.compile(source));
+            double load = best(() -> {
+                try {
+                    AstCache.load(copy);
+                } catch (java.io.IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            });
+            System.out.printf("%d functions, entry %d bytes%n", compiled.functions.size(),
+                    Files.size(dir.resolve("bench.cpp.txt.ast")));
+            System.out.printf("compile: %8.1f ms%n", compile);
+            System.out.printf("load:    %8.1f ms%n", load);
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (java.nio.file.Path f : files.toList())
+                    Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // stream [functions]: Compiler.compile vs StreamingCompiler on a
+    // generated program; heap in use while compiling, sampled
+    static void stream(int functions) {
+        String source = program(functions);
+        CompileResult whole = Compiler.compile(source);
+        check(whole.ok(), "generated program does not compile");
+        Functions streamed = new Functions();
+        CompileResult result = StreamingCompiler.compile(source, streamed::add);
+        check(result.ok(), "streaming compile failed");
+        check(shown(new Program(whole.output().globals, streamed)).equals(shown(whole.output())),
+                "streamed functions differ from Compiler.compile");
+        whole = null;
+        streamed = null;
+
+        long base = heap();
+        long[] peak = new long[1];
+        int[] seen = new int[1];
+        StreamingCompiler.compile(source, f -> {
+            if (seen[0]++ % 200 == 0)
+                peak[0] = Math.max(peak[0], heap() - base);
+        });
+        Program[] kept = new Program[1];
+        long wholeHeap = 0;
+        for (int i = 0; i < 1; i++) {
+            kept[0] = Compiler.compile(source).output();
+            wholeHeap = heap() - base;
+        }
+        System.out.printf("%d functions%n", kept[0].functions.size());
+        System.out.printf("whole program: %8.1f MB held%n", wholeHeap / 1e6);
+        System.out.printf("streaming:     %8.1f MB peak sampled%n", peak[0] / 1e6);
+    }
+
+    // share [functions]: heap held by the transformed output of a
+    // generated program without and with ExpressionFactory sharing
+    static void share(int functions) {
+        String source = program(functions);
+        CompileResult plain = Compiler.compile(source);
+        CompileResult shared = Compiler.compile(source, true);
+        check(shared.ok(), "generated program does not compile");
+        check(shown(shared.output()).equals(shown(plain.output())), "shared output differs");
+        java.util.Set<Expression> distinct = java.util.Collections.newSetFromMap(
+                new java.util.IdentityHashMap<Expression, Boolean>());
+        int[] total = new int[1];
+        for (Function f : shared.output().functions)
+            count(f.body, distinct, total);
+        plain = null;
+        shared = null;
+
+        Program[] kept = new Program[1];
+        long plainBytes = held(() -> kept[0] = Compiler.compile(source).output());
+        kept[0] = null;
+        long sharedBytes = held(() -> kept[0] = Compiler.compile(source, true).output());
+
+        double plainTime = best(() -> Compiler.compile(source));
+        double sharedTime = best(() -> Compiler.compile(source, true));
+        System.out.printf("%d expression nodes, %d distinct%n", total[0], distinct.size());
+        System.out.printf("plain:  %8.1f MB  %8.1f ms%n", plainBytes / 1e6, plainTime);
+        System.out.printf("shared: %8.1f MB  %8.1f ms%n", sharedBytes / 1e6, sharedTime);
+    }
+
+    private static long held(Runnable compile) { // heap still in use after compile
+        long base = heap();
+        compile.run();
+        return heap() - base;
+    }
+
+    private static void count(Statement s, java.util.Set<Expression> distinct, int[] total) {
+        if (s instanceof Assignment)
+            count(((Assignment) s).source, distinct, total);
+        else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            count(c.test, distinct, total);
+            count(c.thenBranch, distinct, total);
+            count(c.elseBranch, distinct, total);
+        } else if (s instanceof Loop) {
+            count(((Loop) s).test, distinct, total);
+            count(((Loop) s).body, distinct, total);
+        } else if (s instanceof Block)
+            for (Statement stmt : ((Block) s).statements)
+                count(stmt, distinct, total);
+        else if (s instanceof Return)
+            count(((Return) s).retVal, distinct, total);
+        else if (s instanceof CallStatement)
+            for (Expression arg : ((CallStatement) s).args)
+                count(arg, distinct, total);
+    }
+
+    private static void count(Expression e, java.util.Set<Expression> distinct, int[] total) {
+        total[0]++;
+        distinct.add(e);
+        if (e instanceof Binary) {
+            count(((Binary) e).term1, distinct, total);
+            count(((Binary) e).term2, distinct, total);
+        } else if (e instanceof Unary)
+            count(((Unary) e).term, distinct, total);
+        else if (e instanceof CallExpression)
+            for (Expression arg : ((CallExpression) e).args)
+                count(arg, distinct, total);
+    }
+
+    private static String shown(Program p) { // what p.display(0) prints
+        return printed(() -> p.display(0));
+    }
+
+    private static String shown(State s) { // what s.display() prints
+        return printed(s::display);
+    }
+
+    private static String printed(Runnable display) {
+        java.io.PrintStream out = System.out;
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        System.setOut(new java.io.PrintStream(bytes));
+        try {
+            display.run();
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString();
+    }
+
+    private static double best(Runnable r) {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            r.run();
+            best = Math.min(best, (System.nanoTime() - t0) / 1e6);
+        }
+        return best;
+    }
+
+    private static void check(boolean test, String msg) {
+        if (!test)
+            throw new IllegalStateException(msg);
+    }
+
+    private static int arg(String[] args, int i, int dflt) {
+        return args.length > i ? Integer.parseInt(args[i]) : dflt;
+    }
+
+    public static void main(String[] args) throws Exception {
+        switch (args[0]) {
+            case "lex" -> lex(args[1], arg(args, 2, 20000), arg(args, 3, ParallelLexer.DEFAULT_CHUNK_SIZE));
+            case "parse" -> parse(args[1], arg(args, 2, 2000), arg(args, 3, ParallelParser.DEFAULT_TASK_SIZE));
+            case "ast" -> ast(args[1], arg(args, 2, 2000));
+            case "expressions" -> expressions(arg(args, 1, 100000), arg(args, 2, 100000));
+            case "edits" -> edits(arg(args, 1, 50), arg(args, 2, 20000));
+            case "cache" -> cache(arg(args, 1, 2000));
+            case "stream" -> stream(arg(args, 1, 2000));
+            case "share" -> share(arg(args, 1, 2000));
+            case "typing" -> typing(arg(args, 1, 64000));
+            case "symbols" -> symbols(arg(args, 1, 8000));
+            case "check" -> checking(arg(args, 1, 20000),
+                    arg(args, 2, Runtime.getRuntime().availableProcessors()));
+            case "operators" -> operators(arg(args, 1, 1 << 20));
+            case "lookups" -> lookups(arg(args, 1, 1 << 20));
+            case "reachable" -> reachable(arg(args, 1, 2000));
+            case "calls" -> calls(arg(args, 1, 20));
+            case "loop" -> loop(arg(args, 1, 100000000));
+            case "values" -> values(java.util.Arrays.copyOfRange(args, 1, args.length));
+            case "nodes" -> nodes(java.util.Arrays.copyOfRange(args, 1, args.length));
+            case "bytecode" -> bytecode(arg(args, 1, 100000));
+            case "returns" -> returns();
+            case "sessions" -> sessions(arg(args, 1, 5000),
+                    arg(args, 2, Runtime.getRuntime().availableProcessors()));
+            default -> System.err.println("unknown benchmark: " + args[0]);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A CharSequence view over a (possibly memory-mapped) ByteBuffer.
+// Clite sources are plain ASCII, so every byte is one char and no
+// decoding pass or intermediate char[] is needed.
+
+public class ByteSource implements CharSequence {
+
+    private final ByteBuffer bytes;
+    private final int offset;
+    private final int length;
+
+    public ByteSource(ByteBuffer bytes) {
+        this(bytes, bytes.position(), bytes.remaining());
+    }
+
+    private ByteSource(ByteBuffer bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        return (char) (bytes.get(offset + index) & 0xff);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length);
+        return new ByteSource(bytes, offset + start, end - start);
+    }
+
+    public String toString() {
+        byte[] b = new byte[length];
+        bytes.get(offset, b);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+}
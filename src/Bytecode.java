@@ -0,0 +1,568 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+// A checked, transformed and slot-resolved program compiled to register
+// bytecode in one int[], which VM runs.  Each function has a frame of
+// registers: its parameters and locals in their Slots slots, then its
+// constants, loaded once on entry, then the temporaries of its
+// expressions.  Registers hold values unboxed as in Evaluator, and an
+// instruction is an opcode followed by its operands:
+// register numbers within the frame, global slots, jump targets (code
+// indices), function numbers or a 32-bit immediate.
+//
+// Instructions do not test their operands for UNDEF; the compiler puts
+// a DEF before an operation on a value that may be undefined (a
+// variable not assigned on every path to it), and RETV fails if its
+// caller wants a value, so the errors of Semantics are kept without a
+// test on every register.  A loop test that can fail only on an
+// undefined variable has its locals checked once, on entry.
+//
+// A comparison that decides a jump is fused with it (JLT a b t, ...), so
+// a loop test such as k > 0 is a single instruction, and && and || in a
+// test jump on each operand in turn when the right one cannot fail.
+
+public class Bytecode {
+
+    // opcode                  operands
+    static final int MOVE = 0,      // d s
+            CONST = 1,              // d imm
+            LOADG = 2,              // d g
+            STOREG = 3,             // g s
+            DEF = 4,                // r: fails if r is undefined
+            IADD = 5, ISUB = 6, IMUL = 7, IDIV = 8, IMOD = 9,         // d a b
+            ILT = 10, ILE = 11, IGT = 12, IGE = 13, IEQ = 14, INE = 15, // d a b; chars and bools too
+            FADD = 16, FSUB = 17, FMUL = 18, FDIV = 19,               // d a b
+            FLT = 20, FLE = 21, FGT = 22, FGE = 23, FEQ = 24, FNE = 25, // d a b
+            AND = 26, OR = 27,      // d a b
+            NOT = 28, INEG = 29, FNEG = 30, I2F = 31, F2I = 32, I2C = 33, // d a
+            JMP = 34,               // t
+            JZ = 35, JNZ = 36,      // r t
+            CALL = 37,              // d f a n: f on registers a..a+n-1; d < 0 drops the result
+            RET = 38,               // r
+            RETV = 39,              // f: the end of function f, returning no value
+            JLT = 40, JLE = 41, JGT = 42, JGE = 43, JEQ = 44, JNE = 45,       // a b t: if a < b (int), ...
+            JFLT = 46, JFLE = 47, JFGT = 48, JFGE = 49, JFEQ = 50, JFNE = 51; // a b t: if a < b (float), ...
+
+    static final String[] NAMES = {"MOVE", "CONST", "LOADG", "STOREG", "DEF",
+            "IADD", "ISUB", "IMUL", "IDIV", "IMOD", "ILT", "ILE", "IGT", "IGE", "IEQ", "INE",
+            "FADD", "FSUB", "FMUL", "FDIV", "FLT", "FLE", "FGT", "FGE", "FEQ", "FNE",
+            "AND", "OR", "NOT", "INEG", "FNEG", "I2F", "F2I", "I2C",
+            "JMP", "JZ", "JNZ", "CALL", "RET", "RETV",
+            "JLT", "JLE", "JGT", "JGE", "JEQ", "JNE", "JFLT", "JFLE", "JFGT", "JFGE", "JFEQ", "JFNE"};
+    static final int[] OPERANDS = {2, 2, 2, 2, 1,
+            3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3,
+            3, 3, 3, 3, 3, 3, 3, 3, 3, 3,
+            3, 3, 2, 2, 2, 2, 2, 2,
+            1, 2, 2, 4, 1, 1,
+            3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3};
+
+    final Program program;
+    int[] code = new int[256];
+    int size;                  // of code
+    final Function[] functions;         // by function number
+    final int[] entry, registers;       // by function number
+    final int main;                     // function number of main, or -1
+
+    private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+
+    // compiling one function
+    private int locals;             // its parameters and locals
+    private int slots;              // those and its constants
+    private Map<Integer, Integer> constants;   // the register of each constant's bits
+    private int next, max;          // first free temporary; frame size so far
+    private BitSet defined;         // locals holding a defined value on every path here
+    private BitSet definedGlobals;
+    private BitSet weakened;        // locals given a maybe undefined value so far
+    private BitSet weakenedGlobals;
+    private boolean maybeUndef;     // of the register the last expr returned
+
+    private Bytecode(Program p) {
+        program = p;
+        int n = 0;
+        for (Function f : p.functions)
+            if (numbers.putIfAbsent(f.id, n) == null)
+                n++;
+        functions = new Function[n];
+        entry = new int[n];
+        registers = new int[n];
+        for (Function f : p.functions)
+            if (functions[numbers.get(f.id)] == null)
+                functions[numbers.get(f.id)] = f;
+        for (int i = 0; i < n; i++)
+            compile(i);
+        Integer m = numbers.get("main");
+        main = m == null ? -1 : m;
+    }
+
+    // Compiles p, giving its variables their slots unless the compiler
+    // already has.
+    public static Bytecode compile(Program p) {
+        for (Function f : p.functions)
+            if (!Slots.resolved(f)) {
+                Slots.resolve(p);
+                break;
+            }
+        return new Bytecode(p);
+    }
+
+    private void compile(int number) {
+        Function f = functions[number];
+        entry[number] = size;
+        locals = slots = f.frameSize;
+        constants = new HashMap<Integer, Integer>();
+        constants(f.body);
+        slots = next = max = slots + constants.size();
+        for (Map.Entry<Integer, Integer> c : constants.entrySet())
+            emit(CONST, c.getValue(), c.getKey());
+        defined = new BitSet();     // parameters too: an argument may be undefined
+        definedGlobals = new BitSet();
+        weakened = new BitSet();
+        weakenedGlobals = new BitSet();
+        statement(f.body);
+        emit(RETV, number);
+        registers[number] = max;
+    }
+
+    private void statement(Statement s) {
+        if (s instanceof Skip)
+            return;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            checkSlot(a.target);
+            if (a.target.global) {
+                int r = expr(a.source, -1);
+                emit(STOREG, a.target.slot, r);
+                assigned(definedGlobals, weakenedGlobals, a.target.slot);
+            } else {
+                expr(a.source, a.target.slot);
+                assigned(defined, weakened, a.target.slot);
+            }
+            next = slots;
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            int jz = jumpIf(c.test, false);
+            BitSet before = (BitSet) defined.clone(), beforeGlobals = (BitSet) definedGlobals.clone();
+            statement(c.thenBranch);
+            if (c.elseBranch instanceof Skip) {
+                patch(jz, size);
+                defined = before;
+                definedGlobals = beforeGlobals;
+            } else {
+                int jmp = emitJump(JMP, -1);
+                patch(jz, size);
+                BitSet thenDefined = defined, thenGlobals = definedGlobals;
+                defined = before;
+                definedGlobals = beforeGlobals;
+                statement(c.elseBranch);
+                patch(jmp, size);
+                defined.and(thenDefined);
+                definedGlobals.and(thenGlobals);
+            }
+        } else if (s instanceof Loop) {
+            // the test at the bottom: one jump per iteration.  A pure test
+            // fails on entry if at all, so its locals are checked there.
+            Loop l = (Loop) s;
+            if (pure(l.test, false))
+                defs(l.test);
+            int jmp = emitJump(JMP, -1);
+            BitSet before = (BitSet) defined.clone(), beforeGlobals = (BitSet) definedGlobals.clone();
+            BitSet outer = weakened, outerGlobals = weakenedGlobals;
+            int body = size;
+            while (true) {
+                // what the body or the test may leave undefined is so when
+                // the body starts again: compile them again without
+                // assuming those defined, until nothing changes
+                defined = (BitSet) before.clone();
+                definedGlobals = (BitSet) beforeGlobals.clone();
+                weakened = new BitSet();
+                weakenedGlobals = new BitSet();
+                statement(l.body);
+                defined = (BitSet) before.clone();      // the body may not run at all
+                definedGlobals = (BitSet) beforeGlobals.clone();
+                patch(jmp, size);
+                patch(jumpIf(l.test, true), body);
+                if (!weakened.intersects(before) && !weakenedGlobals.intersects(beforeGlobals))
+                    break;
+                before.andNot(weakened);
+                beforeGlobals.andNot(weakenedGlobals);
+                size = body;
+            }
+            outer.or(weakened);
+            outerGlobals.or(weakenedGlobals);
+            weakened = outer;
+            weakenedGlobals = outerGlobals;
+        } else if (s instanceof Block) {
+            for (Statement stmt : ((Block) s).statements)
+                statement(stmt);
+        } else if (s instanceof Return) {
+            emit(RET, expr(((Return) s).retVal, -1));
+            next = slots;
+        } else if (s instanceof CallStatement) {
+            CallStatement c = (CallStatement) s;
+            call(c.id, c.args, -1);
+            next = slots;
+        } else
+            throw new IllegalArgumentException("should never reach here");
+    }
+
+    // Gives each distinct constant in s a register after the slots, but
+    // for those CONST puts straight into a local or an argument
+    private void constants(Statement s) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            if (a.target.global || !(a.source instanceof Value))
+                constants(a.source);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            constants(c.test);
+            constants(c.thenBranch);
+            constants(c.elseBranch);
+        } else if (s instanceof Loop) {
+            constants(((Loop) s).test);
+            constants(((Loop) s).body);
+        } else if (s instanceof Block) {
+            for (Statement stmt : ((Block) s).statements)
+                constants(stmt);
+        } else if (s instanceof Return)
+            constants(((Return) s).retVal);
+        else if (s instanceof CallStatement)
+            arguments(((CallStatement) s).args);
+    }
+
+    private void constants(Expression e) {
+        if (e instanceof Value)
+            constants.putIfAbsent((int) Evaluator.bits((Value) e), slots + constants.size());
+        else if (e instanceof Binary) {
+            constants(((Binary) e).term1);
+            constants(((Binary) e).term2);
+        } else if (e instanceof Unary)
+            constants(((Unary) e).term);
+        else if (e instanceof CallExpression)
+            arguments(((CallExpression) e).args);
+    }
+
+    private void arguments(Expressions args) {
+        for (Expression arg : args)
+            if (!(arg instanceof Value))
+                constants(arg);
+    }
+
+    private void assigned(BitSet defined, BitSet weakened, int slot) {
+        defined.set(slot, !maybeUndef);
+        if (maybeUndef)
+            weakened.set(slot);
+    }
+
+    // A register holding the bool test, checked to be defined
+    private int test(Expression e) {
+        int r = expr(e, -1);
+        if (maybeUndef)
+            def(r);
+        next = slots;
+        return r;
+    }
+
+    // A jump taken when test is when, fused with the comparison test makes
+    // if there is an instruction for it; the chain of its targets, to
+    // patch.  && and || jump on each operand in turn if their right
+    // operand may be left unevaluated.
+    private int jumpIf(Expression test, boolean when) {
+        if (!(test instanceof Binary))
+            return emitJump(when ? JNZ : JZ, test(test));
+        Binary b = (Binary) test;
+        boolean or = b.op.code == Operator.Code.OR;
+        if ((or || b.op.code == Operator.Code.AND) && pure(b.term2, true)) {
+            if (or == when)     // either operand alone decides to jump
+                return chain(jumpIf(b.term1, when), jumpIf(b.term2, when));
+            int decided = jumpIf(b.term1, !when);
+            int jump = jumpIf(b.term2, when);
+            patch(decided, size);
+            return jump;
+        }
+        int op = branch(b.op, when);
+        if (op < 0)
+            return emitJump(when ? JNZ : JZ, test(test));
+        int[] ab = operands(b);
+        next = slots;
+        emit(op, ab[0], ab[1], -1);
+        return size - 1;
+    }
+
+    // Whether e calls nothing and cannot divide by zero, so that it can
+    // fail only by reading an undefined variable; with defined, whether it
+    // reads only variables defined here too, so that it cannot fail
+    private boolean pure(Expression e, boolean defined) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            return !defined || (v.global ? definedGlobals : this.defined).get(v.slot);
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            return b.op.code != Operator.Code.INT_DIV && b.op.code != Operator.Code.INT_MOD
+                    && pure(b.term1, defined) && pure(b.term2, defined);
+        }
+        if (e instanceof Unary)
+            return pure(((Unary) e).term, defined);
+        return e instanceof Value;
+    }
+
+    // Checks every local e reads not yet known to be defined
+    private void defs(Expression e) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            if (!v.global && !defined.get(v.slot))
+                def(v.slot);
+        } else if (e instanceof Binary) {
+            defs(((Binary) e).term1);
+            defs(((Binary) e).term2);
+        } else if (e instanceof Unary)
+            defs(((Unary) e).term);
+    }
+
+    // Checks that r is defined; a local is then known to be, on this path
+    private void def(int r) {
+        emit(DEF, r);
+        if (r < locals)
+            defined.set(r);
+    }
+
+    // The registers of b's operands, each checked to be defined before
+    // the next is evaluated, as Evaluator does
+    private int[] operands(Binary b) {
+        int a = expr(b.term1, -1);
+        if (maybeUndef)
+            def(a);
+        int c = expr(b.term2, -1);
+        if (maybeUndef)
+            def(c);
+        return new int[] {a, c};
+    }
+
+    // Compiles e into register dest, or into any register if dest < 0;
+    // returns the register and sets maybeUndef
+    private int expr(Expression e, int dest) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            checkSlot(v);
+            if (v.global) {
+                int d = dest >= 0 ? dest : temporary();
+                emit(LOADG, d, v.slot);
+                maybeUndef = !definedGlobals.get(v.slot);
+                return d;
+            }
+            maybeUndef = !defined.get(v.slot);
+            if (dest >= 0 && dest != v.slot)
+                emit(MOVE, dest, v.slot);
+            return dest >= 0 ? dest : v.slot;
+        }
+        if (e instanceof Value) {
+            int bits = (int) Evaluator.bits((Value) e);
+            maybeUndef = false;
+            if (dest < 0)
+                return constants.get(bits);
+            emit(CONST, dest, bits);
+            return dest;
+        }
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            int mark = next;
+            int[] ab = operands(b);
+            next = mark;
+            int d = dest >= 0 ? dest : temporary();
+            emit(binary(b.op), d, ab[0], ab[1]);
+            maybeUndef = false;
+            return d;
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            if (u.op.code == Operator.Code.C2I)  // a char is its int
+                return expr(u.term, dest);
+            int mark = next;
+            int a = expr(u.term, -1);
+            if (maybeUndef)
+                def(a);
+            next = mark;
+            int d = dest >= 0 ? dest : temporary();
+            emit(unary(u.op), d, a);
+            maybeUndef = false;
+            return d;
+        }
+        if (e instanceof CallExpression) {
+            CallExpression c = (CallExpression) e;
+            int d = dest >= 0 ? dest : temporary();
+            call(c.id, c.args, d);  // RETV fails if it is to yield a value
+            maybeUndef = true;      // but RET may return an undefined one
+            return d;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    private void call(String id, Expressions args, int dest) {
+        Integer f = numbers.get(id);
+        if (f == null)
+            throw new IllegalArgumentException("undefined function: " + id);
+        int mark = next;
+        int a = next;
+        for (int i = 0; i < args.size(); i++)
+            temporary();
+        for (int i = 0; i < args.size(); i++)
+            expr(args.get(i), a + i);
+        emit(CALL, dest, f, a, args.size());
+        next = mark;
+        // the callee may have given any global an undefined value
+        definedGlobals.clear();
+        weakenedGlobals.set(0, program.globals.size());
+    }
+
+    private int temporary() {
+        int r = next++;
+        max = Math.max(max, next);
+        return r;
+    }
+
+    private static int binary(Operator op) {
+        return switch (op.code) {
+            case INT_PLUS -> IADD;
+            case INT_MINUS -> ISUB;
+            case INT_TIMES -> IMUL;
+            case INT_DIV -> IDIV;
+            case INT_MOD -> IMOD;
+            case INT_LT, CHAR_LT, BOOL_LT -> ILT;   // false < true, as 0 < 1
+            case INT_LE, CHAR_LE, BOOL_LE -> ILE;
+            case INT_GT, CHAR_GT, BOOL_GT -> IGT;
+            case INT_GE, CHAR_GE, BOOL_GE -> IGE;
+            case INT_EQ, CHAR_EQ, BOOL_EQ -> IEQ;
+            case INT_NE, CHAR_NE, BOOL_NE -> INE;
+            case FLOAT_PLUS -> FADD;
+            case FLOAT_MINUS -> FSUB;
+            case FLOAT_TIMES -> FMUL;
+            case FLOAT_DIV -> FDIV;
+            case FLOAT_LT -> FLT;
+            case FLOAT_LE -> FLE;
+            case FLOAT_GT -> FGT;
+            case FLOAT_GE -> FGE;
+            case FLOAT_EQ -> FEQ;
+            case FLOAT_NE -> FNE;
+            case AND -> AND;
+            case OR -> OR;
+            default -> throw new IllegalArgumentException("should never reach here");
+        };
+    }
+
+    // The jump on the comparison op taken when it is when, or -1.  A float
+    // comparison is false on NaN both ways round, so it is fused only
+    // when the jump is taken on true.
+    private static int branch(Operator op, boolean when) {
+        return switch (op.code) {
+            case INT_LT, CHAR_LT, BOOL_LT -> when ? JLT : JGE;
+            case INT_LE, CHAR_LE, BOOL_LE -> when ? JLE : JGT;
+            case INT_GT, CHAR_GT, BOOL_GT -> when ? JGT : JLE;
+            case INT_GE, CHAR_GE, BOOL_GE -> when ? JGE : JLT;
+            case INT_EQ, CHAR_EQ, BOOL_EQ -> when ? JEQ : JNE;
+            case INT_NE, CHAR_NE, BOOL_NE -> when ? JNE : JEQ;
+            case FLOAT_LT -> when ? JFLT : -1;
+            case FLOAT_LE -> when ? JFLE : -1;
+            case FLOAT_GT -> when ? JFGT : -1;
+            case FLOAT_GE -> when ? JFGE : -1;
+            case FLOAT_EQ -> when ? JFEQ : JFNE;    // equality is exact both ways
+            case FLOAT_NE -> when ? JFNE : JFEQ;
+            default -> -1;
+        };
+    }
+
+    private static int unary(Operator op) {
+        return switch (op.code) {
+            case NOT -> NOT;
+            case INT_NEG -> INEG;
+            case FLOAT_NEG -> FNEG;
+            case I2F -> I2F;
+            case F2I -> F2I;
+            case I2C -> I2C;
+            default -> throw new IllegalArgumentException("should never reach here");
+        };
+    }
+
+    private static void checkSlot(VariableRef v) {
+        if (v.slot < 0)
+            throw new IllegalArgumentException("unresolved variable: " + v);
+    }
+
+    private void emit(int... instruction) {
+        if (size + instruction.length > code.length)
+            code = Arrays.copyOf(code, 2 * (size + instruction.length));
+        for (int word : instruction)
+            code[size++] = word;
+    }
+
+    private int emitJump(int op, int r) { // the index of its target, to patch
+        if (op == JMP)
+            emit(JMP, -1);
+        else
+            emit(op, r, -1);
+        return size - 1;
+    }
+
+    // An unpatched target holds -1, or -2 - the index of the next target
+    // in its chain
+    private void patch(int at, int target) {
+        while (at >= 0) {
+            int next = -2 - code[at];
+            code[at] = target;
+            at = next;
+        }
+    }
+
+    private int chain(int a, int b) { // the targets of a, then those of b
+        int at = a;
+        while (code[at] != -1)
+            at = -2 - code[at];
+        code[at] = -2 - b;
+        return a;
+    }
+
+    // One instruction per line: its index, the function it starts, its
+    // name and operands
+    public String disassemble() {
+        StringBuilder out = new StringBuilder();
+        for (int pc = 0; pc < size; pc += 1 + OPERANDS[code[pc]]) {
+            for (int i = 0; i < functions.length; i++)
+                if (entry[i] == pc)
+                    out.append(functions[i].id).append(": ; ").append(registers[i]).append(" registers, ")
+                            .append(functions[i].params.size()).append(" params\n");
+            int op = code[pc];
+            out.append(String.format("%6d  %-7s", pc, NAMES[op]));
+            out.append(operands(op, pc));
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private String operands(int op, int pc) {
+        int[] o = Arrays.copyOfRange(code, pc + 1, pc + 1 + OPERANDS[op]);
+        return switch (op) {
+            case CONST -> "r" + o[0] + ", #" + o[1];
+            case LOADG -> "r" + o[0] + ", g" + o[1];
+            case STOREG -> "g" + o[0] + ", r" + o[1];
+            case JMP -> "@" + o[0];
+            case JZ, JNZ -> "r" + o[0] + ", @" + o[1];
+            case JLT, JLE, JGT, JGE, JEQ, JNE, JFLT, JFLE, JFGT, JFGE, JFEQ, JFNE ->
+                    "r" + o[0] + ", r" + o[1] + ", @" + o[2];
+            case CALL -> {
+                StringBuilder b = new StringBuilder(o[0] < 0 ? "_" : "r" + o[0]);
+                b.append(", ").append(functions[o[1]].id).append('(');
+                for (int i = 0; i < o[3]; i++)
+                    b.append(i > 0 ? ", r" : "r").append(o[2] + i);
+                yield b.append(')').toString();
+            }
+            case RETV -> functions[o[0]].id;
+            default -> {
+                StringBuilder b = new StringBuilder();
+                for (int i = 0; i < o.length; i++)
+                    b.append(i > 0 ? ", r" : "r").append(o[i]);
+                yield b.toString();
+            }
+        };
+    }
+}
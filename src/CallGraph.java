@@ -0,0 +1,90 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+// The functions of a program that a root function can reach through
+// CallStatements and CallExpressions.  Only the bodies of reached
+// functions are walked, so the cost is that of the code that may run,
+// not of the whole program.  A call to a name declared twice goes to the
+// first declaration, as in StaticTypeCheck; calls to undefined functions
+// are left for the checker to report.
+
+public class CallGraph {
+
+    private final Functions functions;
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private final boolean[] reached;
+    private final ArrayDeque<Function> pending = new ArrayDeque<Function>();
+
+    public CallGraph(Program p) {
+        functions = p.functions;
+        for (int i = 0; i < functions.size(); i++)
+            index.putIfAbsent(functions.get(i).id, i);
+        reached = new boolean[functions.size()];
+    }
+
+    // The functions reachable from the one called root, root included,
+    // in source order; every function if there is no root, since then
+    // there is nothing to start from.
+    public static Functions reachable(Program p, String root) {
+        CallGraph graph = new CallGraph(p);
+        if (!graph.index.containsKey(root))
+            return p.functions;
+        graph.reach(root);
+        while (!graph.pending.isEmpty())
+            graph.walk(graph.pending.pop().body);
+        Functions reached = new Functions();
+        for (int i = 0; i < graph.functions.size(); i++)
+            if (graph.reached[i])
+                reached.add(graph.functions.get(i));
+        return reached;
+    }
+
+    private void reach(String id) {
+        Integer i = index.get(id);
+        if (i != null && !reached[i]) {
+            reached[i] = true;
+            pending.push(functions.get(i));
+        }
+    }
+
+    private void walk(Statement s) {
+        if (s instanceof Assignment) {
+            walk(((Assignment) s).source);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            walk(c.test);
+            walk(c.thenBranch);
+            walk(c.elseBranch);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            walk(l.test);
+            walk(l.body);
+        } else if (s instanceof Block) {
+            for (Statement stmt : ((Block) s).statements)
+                walk(stmt);
+        } else if (s instanceof Return) {
+            walk(((Return) s).retVal);
+        } else if (s instanceof CallStatement) {
+            CallStatement c = (CallStatement) s;
+            reach(c.id);
+            for (Expression arg : c.args)
+                walk(arg);
+        }
+    }
+
+    private void walk(Expression e) {
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            walk(b.term1);
+            walk(b.term2);
+        } else if (e instanceof Unary) {
+            walk(((Unary) e).term);
+        } else if (e instanceof CallExpression) {
+            CallExpression c = (CallExpression) e;
+            reach(c.id);
+            for (Expression arg : c.args)
+                walk(arg);
+        }
+    }
+}
@@ -0,0 +1,555 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// The abstract syntax of a Program stored in parallel primitive arrays
+// instead of one heap object per node.  A node is an int index; its kind,
+// a string (identifier or operator) or type, up to three operands and its
+// span live at that index.  Operands are child node indices, or for
+// literals the value bits.  Lists (Block statements, declarations,
+// arguments) and the operands of FUNCTION and CONDITIONAL are runs of
+// child indices in a shared int[] pool.
+//
+// CompactAst.of converts a Program and toProgram converts back; walk
+// visits a subtree without recursion.
+
+public class CompactAst {
+
+    // node kinds; the kind, type and string share data[n]
+    public static final int PROGRAM = 0;        // x: globals list, y: functions list
+    public static final int FUNCTION = 1;       // name, type; elements: params, locals, body
+    public static final int DECLARATION = 2;    // type; x: variable
+    public static final int LIST = 3;           // elements
+    public static final int SKIP = 4;
+    public static final int BLOCK = 5;          // elements: statements
+    public static final int ASSIGNMENT = 6;     // x: target, y: source
+    public static final int CONDITIONAL = 7;    // elements: test, then, else
+    public static final int LOOP = 8;           // x: test, y: body
+    public static final int RETURN = 9;         // x: target, y: value
+    public static final int CALL_STATEMENT = 10;  // name; x: args list
+    public static final int VARIABLE = 11;      // name
+    public static final int INT_VALUE = 12;     // x: value, y: 1 if undef
+    public static final int BOOL_VALUE = 13;
+    public static final int CHAR_VALUE = 14;
+    public static final int FLOAT_VALUE = 15;   // x: Float.floatToIntBits
+    public static final int BINARY = 16;        // op; x: term1, y: term2
+    public static final int UNARY = 17;         // op; x: term
+    public static final int CALL_EXPRESSION = 18; // name; x: args list
+
+    private static final Type[] TYPES = {Type.INT, Type.BOOL, Type.FLOAT, Type.CHAR, Type.VOID};
+
+    private int[] data;      // string index << 8 | type index << 5 | kind
+    private int[] x, y;      // operands; pool start and length for lists
+    private long[] span;
+    private int size = 0;
+
+    private int[] pool = new int[64];
+    private int poolSize = 0;
+
+    private String[] strings = new String[16];
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+
+    private int root = -1;
+    private LineTable lines = new LineTable();
+
+    public CompactAst() {
+        this(64);
+    }
+
+    public CompactAst(int capacity) {
+        capacity = Math.max(capacity, 1);
+        data = new int[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        span = new long[capacity];
+    }
+
+    public LineTable lines() {
+        return lines;
+    }
+
+    public int root() {
+        return root;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int kind(int n) {
+        return data[n] & 31;
+    }
+
+    public String name(int n) { // identifier or operator spelling
+        return strings[data[n] >>> 8];
+    }
+
+    public Type type(int n) {
+        return TYPES[(data[n] >>> 5) & 7];
+    }
+
+    public int first(int n) {
+        return child(n, 0);
+    }
+
+    public int second(int n) {
+        return child(n, 1);
+    }
+
+    public int third(int n) {
+        return child(n, 2);
+    }
+
+    public long span(int n) {
+        return span[n];
+    }
+
+    public int intValue(int n) {
+        return x[n];
+    }
+
+    public float floatValue(int n) {
+        return Float.intBitsToFloat(x[n]);
+    }
+
+    public boolean isUndef(int n) {
+        return y[n] != 0;
+    }
+
+    public int size(int list) { // elements of a LIST, BLOCK, FUNCTION or CONDITIONAL
+        return y[list];
+    }
+
+    public int element(int list, int i) {
+        return pool[x[list] + i];
+    }
+
+    public int childCount(int n) {
+        return switch (kind(n)) {
+            case LIST, BLOCK, FUNCTION, CONDITIONAL -> y[n];
+            case PROGRAM, ASSIGNMENT, LOOP, RETURN, BINARY -> 2;
+            case DECLARATION, CALL_STATEMENT, UNARY, CALL_EXPRESSION -> 1;
+            default -> 0;
+        };
+    }
+
+    public int child(int n, int i) {
+        return switch (kind(n)) {
+            case LIST, BLOCK, FUNCTION, CONDITIONAL -> pool[x[n] + i];
+            default -> i == 0 ? x[n] : y[n];
+        };
+    }
+
+    public interface Visitor {
+        // Called before the children of n; false skips them.
+        boolean enter(CompactAst ast, int n, int depth);
+    }
+
+    public void walk(int n, Visitor v) { // preorder, with an explicit stack
+        int[] nodes = new int[32];
+        int[] depths = new int[32];
+        int top = 0;
+        nodes[0] = n;
+        depths[top++] = 0;
+        while (top > 0) {
+            int node = nodes[--top];
+            int depth = depths[top];
+            if (!v.enter(this, node, depth)) continue;
+            int count = childCount(node);
+            if (top + count > nodes.length) {
+                nodes = Arrays.copyOf(nodes, Math.max(top + count, nodes.length * 2));
+                depths = Arrays.copyOf(depths, nodes.length);
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                nodes[top] = child(node, i);
+                depths[top++] = depth + 1;
+            }
+        }
+    }
+
+    // Building
+
+    private int add(int k, int d, int a, int b, long s) {
+        if (size == data.length)
+            resize(size * 2);
+        data[size] = d | k;
+        x[size] = a;
+        y[size] = b;
+        span[size] = s;
+        return size++;
+    }
+
+    private void resize(int capacity) {
+        data = Arrays.copyOf(data, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        span = Arrays.copyOf(span, capacity);
+    }
+
+    private int list(int k, int d, int[] elements, int count, long s) {
+        if (poolSize + count > pool.length)
+            pool = Arrays.copyOf(pool, Math.max(poolSize + count, pool.length * 2));
+        System.arraycopy(elements, 0, pool, poolSize, count);
+        poolSize += count;
+        return add(k, d, poolSize - count, count, s);
+    }
+
+    private int list(int k, int[] elements, int count, long s) {
+        return list(k, 0, elements, count, s);
+    }
+
+    private void trim() { // drop the spare capacity once built
+        resize(size);
+        pool = Arrays.copyOf(pool, poolSize);
+        strings = Arrays.copyOf(strings, stringIndex.size());
+    }
+
+    private int string(String s) {
+        Integer i = stringIndex.get(s);
+        if (i != null) return i;
+        if (stringIndex.size() == strings.length)
+            strings = Arrays.copyOf(strings, strings.length * 2);
+        strings[stringIndex.size()] = s;
+        stringIndex.put(s, stringIndex.size());
+        return stringIndex.size() - 1;
+    }
+
+    private static int typeCode(Type t) {
+        for (int i = 0; i < TYPES.length; i++)
+            if (TYPES[i] == t) return i;
+        throw new IllegalArgumentException("unknown type: " + t.getId());
+    }
+
+    public static CompactAst of(Program p) {
+        CompactAst ast = new CompactAst();
+        int globals = ast.declarations(p.globals, Span.NONE);
+        int[] fs = new int[p.functions.size()];
+        for (int i = 0; i < fs.length; i++)
+            fs[i] = ast.function(p.functions.get(i));
+        int functions = ast.list(LIST, fs, fs.length, Span.NONE);
+        ast.root = ast.add(PROGRAM, 0, globals, functions, Span.NONE);
+        ast.lines = p.lines;
+        ast.trim();
+        return ast;
+    }
+
+    private int function(Function f) {
+        int params = declarations(f.params, Span.NONE);
+        int locals = declarations(f.locals, Span.NONE);
+        int body = statement(f.body);
+        return list(FUNCTION, string(f.id) << 8 | typeCode(f.type) << 5,
+                new int[]{params, locals, body}, 3, f.span());
+    }
+
+    private int declarations(Declarations ds, long s) {
+        int[] elements = new int[ds.size()];
+        for (int i = 0; i < elements.length; i++) {
+            Declaration d = ds.get(i);
+            elements[i] = add(DECLARATION, typeCode(d.type) << 5, expression(d.variable), 0, d.span());
+        }
+        return list(LIST, elements, elements.length, s);
+    }
+
+    // The nodes below s, children before parents, with an explicit stack
+    // so that nesting as deep as the parser accepts does not overflow
+    private int statement(Statement s) {
+        return convert(s);
+    }
+
+    private int expression(Expression e) {
+        return convert(e);
+    }
+
+    private int convert(Node root) {
+        Node[] nodes = new Node[32];
+        boolean[] expanded = new boolean[32];
+        int[] values = new int[32];
+        int top = 0, count = 0;
+        nodes[top++] = root;
+        while (top > 0) {
+            Node n = nodes[--top];
+            if (!expanded[top]) {
+                Node[] children = children(n);
+                if (top + 1 + children.length > nodes.length) {
+                    nodes = Arrays.copyOf(nodes, Math.max(top + 1 + children.length, 2 * nodes.length));
+                    expanded = Arrays.copyOf(expanded, nodes.length);
+                }
+                expanded[top++] = true;
+                for (int i = children.length - 1; i >= 0; i--) {
+                    nodes[top] = children[i];
+                    expanded[top++] = false;
+                }
+                continue;
+            }
+            expanded[top] = false;
+            int arity = children(n).length;
+            count -= arity;
+            int index = add(n, values, count, arity);
+            if (count == values.length)
+                values = Arrays.copyOf(values, 2 * values.length);
+            values[count++] = index;
+        }
+        return values[0];
+    }
+
+    private static final Node[] LEAF = new Node[0];
+
+    private static Node[] children(Node n) {
+        if (n instanceof Block)
+            return ((Block) n).statements.toArray(LEAF);
+        if (n instanceof Assignment)
+            return new Node[]{((Assignment) n).target, ((Assignment) n).source};
+        if (n instanceof Conditional) {
+            Conditional c = (Conditional) n;
+            return new Node[]{c.test, c.thenBranch, c.elseBranch};
+        }
+        if (n instanceof Loop)
+            return new Node[]{((Loop) n).test, ((Loop) n).body};
+        if (n instanceof Return)
+            return new Node[]{((Return) n).target, ((Return) n).retVal};
+        if (n instanceof CallStatement)
+            return ((CallStatement) n).args.toArray(LEAF);
+        if (n instanceof Binary)
+            return new Node[]{((Binary) n).term1, ((Binary) n).term2};
+        if (n instanceof Unary)
+            return new Node[]{((Unary) n).term};
+        if (n instanceof CallExpression)
+            return ((CallExpression) n).args.toArray(LEAF);
+        return LEAF;
+    }
+
+    // The node for n, whose children are already values[from, from + arity)
+    private int add(Node n, int[] values, int from, int arity) {
+        if (n instanceof Skip)
+            return add(SKIP, 0, 0, 0, n.span());
+        if (n instanceof Block)
+            return list(BLOCK, Arrays.copyOfRange(values, from, from + arity), arity, n.span());
+        if (n instanceof Assignment || n instanceof Loop || n instanceof Return)
+            return add(n instanceof Assignment ? ASSIGNMENT : n instanceof Loop ? LOOP : RETURN, 0,
+                    values[from], values[from + 1], n.span());
+        if (n instanceof Conditional)
+            return list(CONDITIONAL, Arrays.copyOfRange(values, from, from + 3), 3, n.span());
+        if (n instanceof CallStatement) {
+            int args = list(LIST, Arrays.copyOfRange(values, from, from + arity), arity, Span.NONE);
+            return add(CALL_STATEMENT, string(((CallStatement) n).id) << 8, args, 0, n.span());
+        }
+        if (n instanceof Variable)
+            return add(VARIABLE, string(((Variable) n).id) << 8, 0, 0, n.span());
+        if (n instanceof Value) {
+            Value v = (Value) n;
+            int undef = v.isUndef() ? 1 : 0;
+            if (v instanceof IntValue)
+                return add(INT_VALUE, 0, undef == 0 ? v.intValue() : 0, undef, n.span());
+            if (v instanceof BoolValue)
+                return add(BOOL_VALUE, 0, undef == 0 ? v.intValue() : 0, undef, n.span());
+            if (v instanceof CharValue)
+                return add(CHAR_VALUE, 0, undef == 0 ? v.charValue() : 0, undef, n.span());
+            return add(FLOAT_VALUE, 0,
+                    undef == 0 ? Float.floatToIntBits(v.floatValue()) : 0, undef, n.span());
+        }
+        if (n instanceof Binary)
+            return add(BINARY, string(((Binary) n).op.val) << 8, values[from], values[from + 1], n.span());
+        if (n instanceof Unary)
+            return add(UNARY, string(((Unary) n).op.val) << 8, values[from], 0, n.span());
+        if (n instanceof CallExpression) {
+            int args = list(LIST, Arrays.copyOfRange(values, from, from + arity), arity, Span.NONE);
+            return add(CALL_EXPRESSION, string(((CallExpression) n).id) << 8, args, 0, n.span());
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // Back to the object form
+
+    public Program toProgram() {
+        Declarations globals = toDeclarations(x[root]);
+        Functions functions = new Functions();
+        int fs = y[root];
+        for (int i = 0; i < size(fs); i++)
+            functions.add(toFunction(element(fs, i)));
+        Program p = new Program(globals, functions);
+        p.lines = lines;
+        return p;
+    }
+
+    private Function toFunction(int n) {
+        Function f = new Function(type(n), name(n), toDeclarations(first(n)),
+                toDeclarations(second(n)), (Block) toStatement(third(n)));
+        f.span = span[n];
+        return f;
+    }
+
+    private Declarations toDeclarations(int list) {
+        Declarations ds = new Declarations();
+        for (int i = 0; i < size(list); i++) {
+            int d = element(list, i);
+            VariableDeclare v = new VariableDeclare((Variable) toExpression(x[d]), type(d));
+            v.span = span[d];
+            ds.add(v);
+        }
+        return ds;
+    }
+
+    public Statement toStatement(int n) {
+        return (Statement) toNode(n);
+    }
+
+    public Expression toExpression(int n) {
+        return (Expression) toNode(n);
+    }
+
+    // The object form of the tree at n, children first, with an explicit
+    // stack as in convert
+    private Node toNode(int root) {
+        int[] nodes = new int[32];
+        boolean[] expanded = new boolean[32];
+        Node[] values = new Node[32];
+        int top = 0, count = 0;
+        nodes[top++] = root;
+        while (top > 0) {
+            int n = nodes[--top];
+            int arity = operands(n);
+            if (!expanded[top]) {
+                if (top + 1 + arity > nodes.length) {
+                    nodes = Arrays.copyOf(nodes, Math.max(top + 1 + arity, 2 * nodes.length));
+                    expanded = Arrays.copyOf(expanded, nodes.length);
+                }
+                expanded[top++] = true;
+                for (int i = arity - 1; i >= 0; i--) {
+                    nodes[top] = operand(n, i);
+                    expanded[top++] = false;
+                }
+                continue;
+            }
+            expanded[top] = false;
+            count -= arity;
+            Node node = toNode(n, values, count, arity);
+            node.span = span[n];
+            Arrays.fill(values, count, count + arity, null);
+            if (count == values.length)
+                values = Arrays.copyOf(values, 2 * values.length);
+            values[count++] = node;
+        }
+        return values[0];
+    }
+
+    private int operands(int n) { // the statements and expressions below n
+        return switch (kind(n)) {
+            case BLOCK, CONDITIONAL -> y[n];
+            case ASSIGNMENT, LOOP, RETURN, BINARY -> 2;
+            case UNARY -> 1;
+            case CALL_STATEMENT, CALL_EXPRESSION -> size(x[n]);
+            default -> 0;
+        };
+    }
+
+    private int operand(int n, int i) {
+        return switch (kind(n)) {
+            case BLOCK, CONDITIONAL -> element(n, i);
+            case CALL_STATEMENT, CALL_EXPRESSION -> element(x[n], i);
+            default -> i == 0 ? x[n] : y[n];
+        };
+    }
+
+    private Node toNode(int n, Node[] values, int from, int arity) {
+        return switch (kind(n)) {
+            case SKIP -> new Skip();
+            case BLOCK -> {
+                Block b = new Block();
+                for (int i = 0; i < arity; i++)
+                    b.statements.add((Statement) values[from + i]);
+                yield b;
+            }
+            case ASSIGNMENT -> new Assignment((VariableRef) values[from], (Expression) values[from + 1]);
+            case CONDITIONAL -> new Conditional((Expression) values[from], (Statement) values[from + 1],
+                    (Statement) values[from + 2]);
+            case LOOP -> new Loop((Expression) values[from], (Statement) values[from + 1]);
+            case RETURN -> new Return((Variable) values[from], (Expression) values[from + 1]);
+            case CALL_STATEMENT -> new CallStatement(name(n), arguments(values, from, arity));
+            case VARIABLE -> new Variable(name(n));
+            case INT_VALUE -> isUndef(n) ? new IntValue() : new IntValue(x[n]);
+            case BOOL_VALUE -> isUndef(n) ? new BoolValue() : new BoolValue(x[n] != 0);
+            case CHAR_VALUE -> isUndef(n) ? new CharValue() : new CharValue((char) x[n]);
+            case FLOAT_VALUE -> isUndef(n) ? new FloatValue() : new FloatValue(floatValue(n));
+            case BINARY -> new Binary(Operator.of(name(n)), (Expression) values[from],
+                    (Expression) values[from + 1]);
+            case UNARY -> new Unary(Operator.of(name(n)), (Expression) values[from]);
+            case CALL_EXPRESSION -> new CallExpression(name(n), arguments(values, from, arity));
+            default -> throw new IllegalArgumentException("not a statement or expression: " + kind(n));
+        };
+    }
+
+    private static Expressions arguments(Node[] values, int from, int arity) {
+        Expressions args = new Expressions();
+        for (int i = 0; i < arity; i++)
+            args.add((Expression) values[from + i]);
+        return args;
+    }
+
+    // Binary form: counts, the node arrays, the pool, the line starts
+    // and the strings as UTF-8, all big-endian
+
+    public byte[] toBytes() {
+        byte[][] utf = new byte[strings.length][];
+        int stringBytes = 0;
+        for (int i = 0; i < utf.length; i++) {
+            utf[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            stringBytes += 4 + utf[i].length;
+        }
+        int lineCount = lines.lines();
+        ByteBuffer b = ByteBuffer.allocate(5 * 4 + size * 20 + poolSize * 4 + lineCount * 4 + stringBytes);
+        b.putInt(size).putInt(poolSize).putInt(strings.length).putInt(lineCount).putInt(root);
+        b.asIntBuffer().put(data, 0, size);
+        b.position(b.position() + size * 4);
+        b.asIntBuffer().put(x, 0, size);
+        b.position(b.position() + size * 4);
+        b.asIntBuffer().put(y, 0, size);
+        b.position(b.position() + size * 4);
+        b.asLongBuffer().put(span, 0, size);
+        b.position(b.position() + size * 8);
+        b.asIntBuffer().put(pool, 0, poolSize);
+        b.position(b.position() + poolSize * 4);
+        for (int i = 0; i < lineCount; i++)
+            b.putInt(lines.start(i));
+        for (byte[] s : utf)
+            b.putInt(s.length).put(s);
+        return b.array();
+    }
+
+    public static CompactAst fromBytes(ByteBuffer b) {
+        int size = b.getInt(), poolSize = b.getInt(), stringCount = b.getInt();
+        int lineCount = b.getInt();
+        CompactAst ast = new CompactAst(size);
+        ast.root = b.getInt();
+        if (size < 0 || poolSize < 0 || stringCount < 0 || lineCount < 0
+                || ast.root < 0 || ast.root >= size)
+            throw new IllegalArgumentException("malformed CompactAst");
+        ast.size = size;
+        b.asIntBuffer().get(ast.data, 0, size);
+        b.position(b.position() + size * 4);
+        b.asIntBuffer().get(ast.x, 0, size);
+        b.position(b.position() + size * 4);
+        b.asIntBuffer().get(ast.y, 0, size);
+        b.position(b.position() + size * 4);
+        b.asLongBuffer().get(ast.span, 0, size);
+        b.position(b.position() + size * 8);
+        ast.pool = new int[poolSize];
+        ast.poolSize = poolSize;
+        b.asIntBuffer().get(ast.pool);
+        b.position(b.position() + poolSize * 4);
+        for (int i = 0; i < lineCount; i++)
+            ast.lines.addLine(b.getInt());
+        ast.strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            byte[] s = new byte[b.getInt()];
+            b.get(s);
+            ast.strings[i] = new String(s, StandardCharsets.UTF_8);
+        }
+        return ast;
+    }
+
+    public long bytes() { // approximate footprint of the arrays
+        return 20L * data.length + 4L * pool.length + 4L * strings.length;
+    }
+}
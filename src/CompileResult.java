@@ -0,0 +1,42 @@
+// What Compiler.compile found for one source: the parsed program, and
+// unless there were errors, the type map of its globals and the program
+// after TypeTransformer.
+
+public class CompileResult {
+    final Program program;     // as parsed; partial if there were syntax errors
+    final TypeMap globals;
+    final Program output;      // null if there were errors
+    final Diagnostics diagnostics;
+
+    CompileResult(Program program, TypeMap globals, Program output, Diagnostics diagnostics) {
+        this.program = program;
+        this.globals = globals;
+        this.output = output;
+        this.diagnostics = diagnostics;
+    }
+
+    public boolean ok() {
+        return !diagnostics.hasErrors();
+    }
+
+    public Program program() {
+        return program;
+    }
+
+    public TypeMap globals() {
+        return globals;
+    }
+
+    public Program output() {
+        return output;
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+    public void printDiagnostics(java.io.PrintStream out, String fileName) {
+        for (Diagnostics.Diagnostic d : diagnostics.errors())
+            out.println(fileName + ": " + d.format(program.lines));
+    }
+}
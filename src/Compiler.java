@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
+// Lexes, parses, type checks and transforms a source without ever
+// exiting, so one JVM can compile any number of files and report every
+// error in each of them.
+// Usage: java Compiler <source file> ...
+
+public class Compiler {
+
+    // Bump when the trees compile() produces change shape; AstCache also
+    // keys its entries on the class files of the front end.
+    public static final String VERSION = "2";
+
+    // A session's checker and transformer hold the state of the program
+    // being compiled.  A session compiles one source at a time and may be
+    // reused; separate sessions may run concurrently.
+    private final StaticTypeCheck checker = new StaticTypeCheck();
+    private final TypeTransformer transformer = new TypeTransformer(checker);
+    private final ForkJoinPool pool;   // null: check functions sequentially
+    private final boolean reachable;   // only the functions main may call
+
+    public Compiler() {
+        this(null);
+    }
+
+    // A session that checks and transforms the functions of a program
+    // in parallel on pool, with the same results as a sequential one
+    public Compiler(ForkJoinPool pool) {
+        this(pool, false);
+    }
+
+    // With reachable, only main and the functions it may call (see
+    // CallGraph) are checked and transformed, and only they are in the
+    // output; the other functions' signatures and declarations are still
+    // checked, but errors in their bodies go unreported.
+    public Compiler(ForkJoinPool pool, boolean reachable) {
+        this.pool = pool;
+        this.reachable = reachable;
+    }
+
+    public static CompileResult compile(CharSequence source) {
+        return compile(source, false);
+    }
+
+    // With share, identical subexpressions of the checked program and of
+    // the output are hash-consed by an ExpressionFactory.
+    public static CompileResult compile(CharSequence source, boolean share) {
+        return new Compiler().run(source, share);
+    }
+
+    public CompileResult run(CharSequence source, boolean share) {
+        Parser parser = new Parser(Lexer.forSource(source));
+        Program program = parser.program();
+        Diagnostics diagnostics = parser.diagnostics();
+
+        checker.reset();
+        checker.resolve(program);
+        TypeMap globals = StaticTypeCheck.typing(program.globals);
+        Functions bodies = reachable ? CallGraph.reachable(program, "main") : program.functions;
+        Program output = null;
+        try {
+            checker.V(program, globals, bodies, pool);
+            diagnostics.addAll(checker.diagnostics());
+            if (diagnostics.hasErrors())
+                return new CompileResult(program, globals, null, diagnostics);
+
+            transformer.reset();
+            if (share) {
+                ExpressionFactory factory = new ExpressionFactory();
+                factory.share(new Program(program.globals, bodies));
+                transformer.share(factory);
+            }
+            output = Slots.resolve(transformer.T(program, globals, bodies, pool));
+            transformer.share(null);
+            diagnostics.addAll(checker.diagnostics());
+        } catch (IllegalArgumentException e) { // a construct the checker cannot handle
+            diagnostics.addAll(checker.diagnostics());
+            diagnostics.error("internal error: " + e.getMessage());
+        }
+        return new CompileResult(program, globals, diagnostics.hasErrors() ? null : output,
+                diagnostics);
+    }
+
+    public static CompileResult compileFile(String fileName) throws IOException {
+        return compile(new String(Files.readAllBytes(Paths.get(fileName)), "ISO-8859-1"));
+    }
+
+    public static void main(String args[]) {
+        int failed = 0;
+        for (String fileName : args) {
+            try {
+                CompileResult result = compileFile(fileName);
+                if (!result.ok()) {
+                    result.printDiagnostics(System.err, fileName);
+                    failed++;
+                }
+            } catch (IOException e) {
+                System.err.println(fileName + ": cannot read: " + e.getMessage());
+                failed++;
+            }
+        }
+        System.out.println((args.length - failed) + " of " + args.length + " files compiled");
+        if (failed > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects the errors found while compiling one source file, so that the
+// Lexer, Parser and StaticTypeCheck can keep going after the first one.
+
+public class Diagnostics {
+
+    public static class Diagnostic {
+        final long span;       // Span.NONE when not tied to the source
+        final String message;
+
+        Diagnostic(long span, String message) {
+            this.span = span;
+            this.message = message;
+        }
+
+        public long span() {
+            return span;
+        }
+
+        public String message() {
+            return message;
+        }
+
+        public String format(LineTable lines) {
+            if (span == Span.NONE) return message;
+            return lines.format(span) + ": " + message;
+        }
+    }
+
+    private final List<Diagnostic> errors = new ArrayList<Diagnostic>();
+
+    public void error(long span, String message) {
+        errors.add(new Diagnostic(span, message));
+    }
+
+    public void error(String message) {
+        error(Span.NONE, message);
+    }
+
+    public void addAll(Diagnostics d) {
+        errors.addAll(d.errors);
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    public int count() {
+        return errors.size();
+    }
+
+    public List<Diagnostic> errors() {
+        return errors;
+    }
+
+    public void print(PrintStream out, LineTable lines) {
+        for (Diagnostic d : errors)
+            out.println(d.format(lines));
+    }
+}
@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// Runs a checked, transformed and slot-resolved program (see Semantics
+// for the meaning) without boxing: every value is a long, read by the
+// type the program statically gives it -- an int or a char as itself, a
+// bool as 0 or 1, a float as its raw int bits.  A frame is a long[] in
+// the slots of Slots, and an undefined variable holds UNDEF, which no
+// value can be.  Values are boxed only at the ends: the literals of the
+// program are read once per use, and run returns a State.
+//
+// Evaluator is the allocation-free mode, not the fast one: it walks the
+// same tree as Semantics and takes about as long (Benchmark values).
+// For speed, lower the program to Executable.
+// Usage: java Evaluator <source file>
+
+public class Evaluator {
+
+    static final long UNDEF = Long.MIN_VALUE;
+
+    private final Map<String, Function> functions = new HashMap<String, Function>();
+    private long[] globals;
+    private boolean returning;      // a Return ran; the rest of the call is skipped
+    private long returned;          // its value, which may be UNDEF
+
+    // Runs main; the result is main's frame and the globals, boxed as
+    // Semantics.M(p) would leave them.
+    public State run(Program p) {
+        for (Function f : p.functions)
+            functions.putIfAbsent(f.id, f);
+        Function main = functions.get("main");
+        if (main == null)
+            throw new IllegalArgumentException("no main function");
+        if (!Slots.resolved(main))
+            Slots.resolve(p);
+        globals = new long[p.globals.size()];
+        java.util.Arrays.fill(globals, UNDEF);
+        long[] frame = frame(main, new Expressions(), null);
+        execute(main.body, frame);
+        returning = false;
+
+        State global = new State(p.globals);
+        box(global, p.globals, 0, globals);
+        State state = new State(main, global);
+        box(state, main.params, 0, frame);
+        box(state, main.locals, main.params.size(), frame);
+        return state;
+    }
+
+    static void box(State state, Declarations d, int from, long[] frame) {
+        for (int i = 0; i < d.size(); i++) {
+            Type type = d.get(i).type;
+            long bits = frame[from + i];
+            state.set(from + i, bits == UNDEF ? Value.mkValue(type) : box(type, bits));
+        }
+    }
+
+    static Value box(Type type, long bits) {
+        if (type == Type.INT) return new IntValue((int) bits);
+        if (type == Type.BOOL) return new BoolValue(bits != 0);
+        if (type == Type.CHAR) return new CharValue((char) bits);
+        if (type == Type.FLOAT) return new FloatValue(Float.intBitsToFloat((int) bits));
+        throw new IllegalArgumentException("Illegal type in box");
+    }
+
+    static long bits(Value v) {
+        if (v.isUndef())
+            return UNDEF;
+        if (v instanceof IntValue) return v.intValue();
+        if (v instanceof BoolValue) return v.boolValue() ? 1 : 0;
+        if (v instanceof CharValue) return v.charValue();
+        if (v instanceof FloatValue) return Float.floatToRawIntBits(v.floatValue());
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // A new frame for f: its parameters bound to args, evaluated in the
+    // caller's frame, and its locals undefined
+    private long[] frame(Function f, Expressions args, long[] caller) {
+        long[] frame = new long[f.frameSize];
+        int slot = 0;
+        for (int i = 0; i < f.params.size(); i++)
+            frame[slot++] = evaluate(args.get(i), caller);
+        while (slot < frame.length)
+            frame[slot++] = UNDEF;
+        return frame;
+    }
+
+    // Runs the function; true if a Return ran, leaving its value in
+    // returned
+    private boolean call(String id, Expressions args, long[] caller) {
+        Function f = functions.get(id);
+        if (f == null)
+            throw new IllegalArgumentException("undefined function: " + id);
+        long[] frame = frame(f, args, caller);
+        execute(f.body, frame);
+        boolean ran = returning;
+        returning = false;
+        return ran;
+    }
+
+    void execute(Statement s, long[] frame) {
+        if (s instanceof Skip)
+            return;
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            long v = evaluate(a.source, frame);
+            (a.target.global ? globals : frame)[a.target.slot] = v;
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            if (test(c.test, frame))
+                execute(c.thenBranch, frame);
+            else
+                execute(c.elseBranch, frame);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            while (!returning && test(l.test, frame))
+                execute(l.body, frame);
+        } else if (s instanceof Block) {
+            ArrayList<Statement> statements = ((Block) s).statements;
+            for (int i = 0; i < statements.size() && !returning; i++)
+                execute(statements.get(i), frame);
+        } else if (s instanceof Return) {
+            returned = evaluate(((Return) s).retVal, frame);
+            returning = true;
+        } else if (s instanceof CallStatement) {
+            CallStatement c = (CallStatement) s;
+            call(c.id, c.args, frame);
+        } else
+            throw new IllegalArgumentException("should never reach here");
+    }
+
+    private boolean test(Expression e, long[] frame) {
+        return defined(evaluate(e, frame)) != 0;
+    }
+
+    private static long defined(long v) {
+        if (v == UNDEF)
+            throw new IllegalArgumentException("reference to undef value");
+        return v;
+    }
+
+    long evaluate(Expression e, long[] frame) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            if (v.slot < 0)
+                throw new IllegalArgumentException("unresolved variable: " + v);
+            return (v.global ? globals : frame)[v.slot];
+        }
+        if (e instanceof Value)
+            return bits((Value) e);
+        if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            return binary(b.op, defined(evaluate(b.term1, frame)), defined(evaluate(b.term2, frame)));
+        }
+        if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            return unary(u.op, defined(evaluate(u.term, frame)));
+        }
+        if (e instanceof CallExpression) {
+            CallExpression c = (CallExpression) e;
+            if (!call(c.id, c.args, frame))
+                throw new IllegalArgumentException(c.id + " returned no value");
+            return returned;
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    static long binary(Operator op, long a, long b) {
+        return switch (op.code) {
+            case INT_PLUS -> (int) a + (int) b;
+            case INT_MINUS -> (int) a - (int) b;
+            case INT_TIMES -> (int) a * (int) b;
+            case INT_DIV -> (int) a / (int) b;
+            case INT_MOD -> (int) a % (int) b;
+            case INT_EQ, CHAR_EQ, BOOL_EQ -> a == b ? 1 : 0;
+            case INT_NE, CHAR_NE, BOOL_NE -> a != b ? 1 : 0;
+            case INT_LT, CHAR_LT, BOOL_LT -> a < b ? 1 : 0;
+            case INT_LE, CHAR_LE, BOOL_LE -> a <= b ? 1 : 0;
+            case INT_GT, CHAR_GT, BOOL_GT -> a > b ? 1 : 0;
+            case INT_GE, CHAR_GE, BOOL_GE -> a >= b ? 1 : 0;
+
+            case FLOAT_PLUS -> floatBits(f(a) + f(b));
+            case FLOAT_MINUS -> floatBits(f(a) - f(b));
+            case FLOAT_TIMES -> floatBits(f(a) * f(b));
+            case FLOAT_DIV -> floatBits(f(a) / f(b));
+            case FLOAT_EQ -> f(a) == f(b) ? 1 : 0;
+            case FLOAT_NE -> f(a) != f(b) ? 1 : 0;
+            case FLOAT_LT -> f(a) < f(b) ? 1 : 0;
+            case FLOAT_LE -> f(a) <= f(b) ? 1 : 0;
+            case FLOAT_GT -> f(a) > f(b) ? 1 : 0;
+            case FLOAT_GE -> f(a) >= f(b) ? 1 : 0;
+
+            case AND -> a & b;
+            case OR -> a | b;
+            default -> throw new IllegalArgumentException("should never reach here");
+        };
+    }
+
+    static long unary(Operator op, long a) {
+        return switch (op.code) {
+            case NOT -> a ^ 1;
+            case INT_NEG -> -(int) a;
+            case FLOAT_NEG -> floatBits(-f(a));
+            case I2F -> floatBits((float) (int) a);
+            case F2I -> (int) f(a);
+            case C2I -> a;
+            case I2C -> (char) a;
+            default -> throw new IllegalArgumentException("should never reach here");
+        };
+    }
+
+    private static float f(long bits) {
+        return Float.intBitsToFloat((int) bits);
+    }
+
+    private static long floatBits(float f) {
+        return Float.floatToRawIntBits(f);
+    }
+
+    public static void main(String args[]) throws java.io.IOException {
+        CompileResult result = Compiler.compileFile(args[0]);
+        if (!result.ok()) {
+            result.printDiagnostics(System.err, args[0]);
+            System.exit(1);
+        }
+        State state = new Evaluator().run(result.output());
+        System.out.println("Final State");
+        state.display();
+    }
+}
@@ -0,0 +1,952 @@
+// The executable nodes Executable lowers a typed program to.  Each node
+// does one thing for one static type, so executing it needs no instanceof
+// or operator dispatch: an IntAddNode adds the ints of two IntNodes.
+// Values are unboxed as in Evaluator (a long per slot, floats as their
+// raw bits, UNDEF for an undefined variable); chars are IntNodes.
+//
+// A frame is a long[] of a function's slots (see Slots) and one more,
+// where a Return leaves the function's value.  Statements return true
+// once a Return has run, which ends the enclosing blocks and loops.
+
+abstract class ExprNode {
+    // The value as frame bits, undefined included: what an assignment,
+    // an argument or a Return copies.
+    abstract long bits(long[] frame);
+
+    static long defined(long v) {
+        if (v == Evaluator.UNDEF)
+            throw new IllegalArgumentException("reference to undef value");
+        return v;
+    }
+}
+
+abstract class IntNode extends ExprNode {
+    abstract int execute(long[] frame);
+
+    // The slot n reads if it is a local read, or -1.  The operator nodes
+    // and assignments read such an operand themselves: a call through
+    // their shared, megamorphic operand field costs more than the read.
+    static int localSlot(IntNode n) {
+        return n instanceof IntLocalReadNode ? ((IntLocalReadNode) n).slot : -1;
+    }
+
+    static int local(long[] frame, int slot) {
+        return (int) defined(frame[slot]);
+    }
+
+    long bits(long[] frame) {
+        return execute(frame);
+    }
+}
+
+abstract class FloatNode extends ExprNode {
+    abstract float execute(long[] frame);
+
+    static int localSlot(FloatNode n) { // as IntNode.localSlot
+        return n instanceof FloatLocalReadNode ? ((FloatLocalReadNode) n).slot : -1;
+    }
+
+    static float local(long[] frame, int slot) {
+        return Float.intBitsToFloat((int) defined(frame[slot]));
+    }
+
+    long bits(long[] frame) {
+        return Float.floatToRawIntBits(execute(frame));
+    }
+}
+
+abstract class BoolNode extends ExprNode {
+    abstract boolean execute(long[] frame);
+
+    long bits(long[] frame) {
+        return execute(frame) ? 1 : 0;
+    }
+}
+
+// Literals
+
+class IntConstNode extends IntNode {
+    private final int value;
+
+    IntConstNode(int value) {
+        this.value = value;
+    }
+
+    int execute(long[] frame) {
+        return value;
+    }
+}
+
+class FloatConstNode extends FloatNode {
+    private final float value;
+
+    FloatConstNode(float value) {
+        this.value = value;
+    }
+
+    float execute(long[] frame) {
+        return value;
+    }
+}
+
+class BoolConstNode extends BoolNode {
+    private final boolean value;
+
+    BoolConstNode(boolean value) {
+        this.value = value;
+    }
+
+    boolean execute(long[] frame) {
+        return value;
+    }
+}
+
+// Variables: a local's slot is in the frame, a global's in the globals'
+// array, which the node holds.  bits copies an undefined value; execute
+// reports it.
+
+class IntLocalReadNode extends IntNode {
+    final int slot;
+
+    IntLocalReadNode(int slot) {
+        this.slot = slot;
+    }
+
+    int execute(long[] frame) {
+        return (int) defined(frame[slot]);
+    }
+
+    long bits(long[] frame) {
+        return frame[slot];
+    }
+}
+
+class IntGlobalReadNode extends IntNode {
+    private final long[] globals;
+    private final int slot;
+
+    IntGlobalReadNode(long[] globals, int slot) {
+        this.globals = globals;
+        this.slot = slot;
+    }
+
+    int execute(long[] frame) {
+        return (int) defined(globals[slot]);
+    }
+
+    long bits(long[] frame) {
+        return globals[slot];
+    }
+}
+
+class FloatLocalReadNode extends FloatNode {
+    final int slot;
+
+    FloatLocalReadNode(int slot) {
+        this.slot = slot;
+    }
+
+    float execute(long[] frame) {
+        return Float.intBitsToFloat((int) defined(frame[slot]));
+    }
+
+    long bits(long[] frame) {
+        return frame[slot];
+    }
+}
+
+class FloatGlobalReadNode extends FloatNode {
+    private final long[] globals;
+    private final int slot;
+
+    FloatGlobalReadNode(long[] globals, int slot) {
+        this.globals = globals;
+        this.slot = slot;
+    }
+
+    float execute(long[] frame) {
+        return Float.intBitsToFloat((int) defined(globals[slot]));
+    }
+
+    long bits(long[] frame) {
+        return globals[slot];
+    }
+}
+
+class BoolLocalReadNode extends BoolNode {
+    private final int slot;
+
+    BoolLocalReadNode(int slot) {
+        this.slot = slot;
+    }
+
+    boolean execute(long[] frame) {
+        return defined(frame[slot]) != 0;
+    }
+
+    long bits(long[] frame) {
+        return frame[slot];
+    }
+}
+
+class BoolGlobalReadNode extends BoolNode {
+    private final long[] globals;
+    private final int slot;
+
+    BoolGlobalReadNode(long[] globals, int slot) {
+        this.globals = globals;
+        this.slot = slot;
+    }
+
+    boolean execute(long[] frame) {
+        return defined(globals[slot]) != 0;
+    }
+
+    long bits(long[] frame) {
+        return globals[slot];
+    }
+}
+
+// Int (and char) arithmetic.  The binary nodes read a local operand, and
+// a constant right one, without calling its node (see IntNode.localSlot).
+
+abstract class IntBinaryNode extends IntNode {
+    final IntNode left, right;
+    private final int leftSlot, rightSlot;     // a local operand, or -1
+    private final boolean rightConst;
+    private final int rightValue;
+
+    IntBinaryNode(IntNode left, IntNode right) {
+        this.left = left;
+        this.right = right;
+        leftSlot = IntNode.localSlot(left);
+        rightSlot = IntNode.localSlot(right);
+        rightConst = right instanceof IntConstNode;
+        rightValue = rightConst ? right.execute(null) : 0;
+    }
+
+    final int left(long[] frame) {
+        return leftSlot >= 0 ? IntNode.local(frame, leftSlot) : left.execute(frame);
+    }
+
+    final int right(long[] frame) {
+        if (rightConst) return rightValue;
+        return rightSlot >= 0 ? IntNode.local(frame, rightSlot) : right.execute(frame);
+    }
+}
+
+class IntAddNode extends IntBinaryNode {
+    IntAddNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    int execute(long[] frame) {
+        return left(frame) + right(frame);
+    }
+}
+
+class IntSubNode extends IntBinaryNode {
+    IntSubNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    int execute(long[] frame) {
+        return left(frame) - right(frame);
+    }
+}
+
+class IntMulNode extends IntBinaryNode {
+    IntMulNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    int execute(long[] frame) {
+        return left(frame) * right(frame);
+    }
+}
+
+class IntDivNode extends IntBinaryNode {
+    IntDivNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    int execute(long[] frame) {
+        return left(frame) / right(frame);
+    }
+}
+
+class IntModNode extends IntBinaryNode {
+    IntModNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    int execute(long[] frame) {
+        return left(frame) % right(frame);
+    }
+}
+
+class IntNegNode extends IntNode {
+    private final IntNode term;
+
+    IntNegNode(IntNode term) {
+        this.term = term;
+    }
+
+    int execute(long[] frame) {
+        return -term.execute(frame);
+    }
+}
+
+class FloatToIntNode extends IntNode {
+    private final FloatNode term;
+
+    FloatToIntNode(FloatNode term) {
+        this.term = term;
+    }
+
+    int execute(long[] frame) {
+        return (int) term.execute(frame);
+    }
+}
+
+class IntToCharNode extends IntNode {
+    private final IntNode term;
+
+    IntToCharNode(IntNode term) {
+        this.term = term;
+    }
+
+    int execute(long[] frame) {
+        return (char) term.execute(frame);
+    }
+}
+
+// Float arithmetic, with operands read as for int
+
+abstract class FloatBinaryNode extends FloatNode {
+    final FloatNode left, right;
+    private final int leftSlot, rightSlot;     // a local operand, or -1
+    private final boolean rightConst;
+    private final float rightValue;
+
+    FloatBinaryNode(FloatNode left, FloatNode right) {
+        this.left = left;
+        this.right = right;
+        leftSlot = FloatNode.localSlot(left);
+        rightSlot = FloatNode.localSlot(right);
+        rightConst = right instanceof FloatConstNode;
+        rightValue = rightConst ? right.execute(null) : 0;
+    }
+
+    final float left(long[] frame) {
+        return leftSlot >= 0 ? FloatNode.local(frame, leftSlot) : left.execute(frame);
+    }
+
+    final float right(long[] frame) {
+        if (rightConst) return rightValue;
+        return rightSlot >= 0 ? FloatNode.local(frame, rightSlot) : right.execute(frame);
+    }
+}
+
+class FloatAddNode extends FloatBinaryNode {
+    FloatAddNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    float execute(long[] frame) {
+        return left(frame) + right(frame);
+    }
+}
+
+class FloatSubNode extends FloatBinaryNode {
+    FloatSubNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    float execute(long[] frame) {
+        return left(frame) - right(frame);
+    }
+}
+
+class FloatMulNode extends FloatBinaryNode {
+    FloatMulNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    float execute(long[] frame) {
+        return left(frame) * right(frame);
+    }
+}
+
+class FloatDivNode extends FloatBinaryNode {
+    FloatDivNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    float execute(long[] frame) {
+        return left(frame) / right(frame);
+    }
+}
+
+class FloatNegNode extends FloatNode {
+    private final FloatNode term;
+
+    FloatNegNode(FloatNode term) {
+        this.term = term;
+    }
+
+    float execute(long[] frame) {
+        return -term.execute(frame);
+    }
+}
+
+class IntToFloatNode extends FloatNode {
+    private final IntNode term;
+
+    IntToFloatNode(IntNode term) {
+        this.term = term;
+    }
+
+    float execute(long[] frame) {
+        return (float) term.execute(frame);
+    }
+}
+
+// Int (and char) comparisons
+
+abstract class IntCompareNode extends BoolNode {
+    final IntNode left, right;
+    private final int leftSlot, rightSlot;     // a local operand, or -1
+    private final boolean rightConst;
+    private final int rightValue;
+
+    IntCompareNode(IntNode left, IntNode right) {
+        this.left = left;
+        this.right = right;
+        leftSlot = IntNode.localSlot(left);
+        rightSlot = IntNode.localSlot(right);
+        rightConst = right instanceof IntConstNode;
+        rightValue = rightConst ? right.execute(null) : 0;
+    }
+
+    final int left(long[] frame) {
+        return leftSlot >= 0 ? IntNode.local(frame, leftSlot) : left.execute(frame);
+    }
+
+    final int right(long[] frame) {
+        if (rightConst) return rightValue;
+        return rightSlot >= 0 ? IntNode.local(frame, rightSlot) : right.execute(frame);
+    }
+}
+
+class IntLtNode extends IntCompareNode {
+    IntLtNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) < right(frame);
+    }
+}
+
+class IntLeNode extends IntCompareNode {
+    IntLeNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) <= right(frame);
+    }
+}
+
+class IntGtNode extends IntCompareNode {
+    IntGtNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) > right(frame);
+    }
+}
+
+class IntGeNode extends IntCompareNode {
+    IntGeNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) >= right(frame);
+    }
+}
+
+class IntEqNode extends IntCompareNode {
+    IntEqNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) == right(frame);
+    }
+}
+
+class IntNeNode extends IntCompareNode {
+    IntNeNode(IntNode left, IntNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) != right(frame);
+    }
+}
+
+// Float comparisons
+
+abstract class FloatCompareNode extends BoolNode {
+    final FloatNode left, right;
+    private final int leftSlot, rightSlot;     // a local operand, or -1
+    private final boolean rightConst;
+    private final float rightValue;
+
+    FloatCompareNode(FloatNode left, FloatNode right) {
+        this.left = left;
+        this.right = right;
+        leftSlot = FloatNode.localSlot(left);
+        rightSlot = FloatNode.localSlot(right);
+        rightConst = right instanceof FloatConstNode;
+        rightValue = rightConst ? right.execute(null) : 0;
+    }
+
+    final float left(long[] frame) {
+        return leftSlot >= 0 ? FloatNode.local(frame, leftSlot) : left.execute(frame);
+    }
+
+    final float right(long[] frame) {
+        if (rightConst) return rightValue;
+        return rightSlot >= 0 ? FloatNode.local(frame, rightSlot) : right.execute(frame);
+    }
+}
+
+class FloatLtNode extends FloatCompareNode {
+    FloatLtNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) < right(frame);
+    }
+}
+
+class FloatLeNode extends FloatCompareNode {
+    FloatLeNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) <= right(frame);
+    }
+}
+
+class FloatGtNode extends FloatCompareNode {
+    FloatGtNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) > right(frame);
+    }
+}
+
+class FloatGeNode extends FloatCompareNode {
+    FloatGeNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) >= right(frame);
+    }
+}
+
+class FloatEqNode extends FloatCompareNode {
+    FloatEqNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) == right(frame);
+    }
+}
+
+class FloatNeNode extends FloatCompareNode {
+    FloatNeNode(FloatNode left, FloatNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left(frame) != right(frame);
+    }
+}
+
+// Bool operators; && and || evaluate both operands, as in Semantics
+
+abstract class BoolBinaryNode extends BoolNode {
+    final BoolNode left, right;
+
+    BoolBinaryNode(BoolNode left, BoolNode right) {
+        this.left = left;
+        this.right = right;
+    }
+}
+
+class AndNode extends BoolBinaryNode {
+    AndNode(BoolNode left, BoolNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left.execute(frame) & right.execute(frame);
+    }
+}
+
+class OrNode extends BoolBinaryNode {
+    OrNode(BoolNode left, BoolNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left.execute(frame) | right.execute(frame);
+    }
+}
+
+class BoolEqNode extends BoolBinaryNode {
+    BoolEqNode(BoolNode left, BoolNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left.execute(frame) == right.execute(frame);
+    }
+}
+
+class BoolNeNode extends BoolBinaryNode {
+    BoolNeNode(BoolNode left, BoolNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left.execute(frame) != right.execute(frame);
+    }
+}
+
+class BoolLtNode extends BoolBinaryNode {   // false < true
+    BoolLtNode(BoolNode left, BoolNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return !left.execute(frame) & right.execute(frame);
+    }
+}
+
+class BoolLeNode extends BoolBinaryNode {
+    BoolLeNode(BoolNode left, BoolNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return !left.execute(frame) | right.execute(frame);
+    }
+}
+
+class BoolGtNode extends BoolBinaryNode {
+    BoolGtNode(BoolNode left, BoolNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left.execute(frame) & !right.execute(frame);
+    }
+}
+
+class BoolGeNode extends BoolBinaryNode {
+    BoolGeNode(BoolNode left, BoolNode right) {
+        super(left, right);
+    }
+
+    boolean execute(long[] frame) {
+        return left.execute(frame) | !right.execute(frame);
+    }
+}
+
+class NotNode extends BoolNode {
+    private final BoolNode term;
+
+    NotNode(BoolNode term) {
+        this.term = term;
+    }
+
+    boolean execute(long[] frame) {
+        return !term.execute(frame);
+    }
+}
+
+// Calls
+
+// A lowered function; its body is filled in after every function has a
+// target, so that calls (recursive ones too) can be lowered first.
+class CallTarget {
+    final String id;
+    final int params, frameSize;    // frameSize: slots, without the return slot
+    StatementNode body;
+
+    CallTarget(Function f) {
+        id = f.id;
+        params = f.params.size();
+        frameSize = f.frameSize;
+    }
+
+    // Runs the function on args, evaluated in caller, for its value: the
+    // return slot, which may be UNDEF, once a Return has run
+    long call(ExprNode[] args, long[] caller) {
+        long[] frame = frame(args, caller);
+        if (!body.execute(frame))
+            throw new IllegalArgumentException(id + " returned no value");
+        return frame[frameSize];
+    }
+
+    // Runs the function on args as a statement, for its effects
+    void run(ExprNode[] args, long[] caller) {
+        body.execute(frame(args, caller));
+    }
+
+    private long[] frame(ExprNode[] args, long[] caller) {
+        long[] frame = new long[frameSize + 1];
+        int slot = 0;
+        for (; slot < params; slot++)
+            frame[slot] = args[slot].bits(caller);
+        for (; slot < frame.length; slot++)
+            frame[slot] = Evaluator.UNDEF;
+        return frame;
+    }
+}
+
+class IntCallNode extends IntNode {
+    private final CallTarget target;
+    private final ExprNode[] args;
+
+    IntCallNode(CallTarget target, ExprNode[] args) {
+        this.target = target;
+        this.args = args;
+    }
+
+    int execute(long[] frame) {
+        return (int) defined(target.call(args, frame));
+    }
+
+    long bits(long[] frame) {
+        return target.call(args, frame);
+    }
+}
+
+class FloatCallNode extends FloatNode {
+    private final CallTarget target;
+    private final ExprNode[] args;
+
+    FloatCallNode(CallTarget target, ExprNode[] args) {
+        this.target = target;
+        this.args = args;
+    }
+
+    float execute(long[] frame) {
+        return Float.intBitsToFloat((int) defined(target.call(args, frame)));
+    }
+
+    long bits(long[] frame) {
+        return target.call(args, frame);
+    }
+}
+
+class BoolCallNode extends BoolNode {
+    private final CallTarget target;
+    private final ExprNode[] args;
+
+    BoolCallNode(CallTarget target, ExprNode[] args) {
+        this.target = target;
+        this.args = args;
+    }
+
+    boolean execute(long[] frame) {
+        return defined(target.call(args, frame)) != 0;
+    }
+
+    long bits(long[] frame) {
+        return target.call(args, frame);
+    }
+}
+
+// Statements
+
+abstract class StatementNode {
+    // Runs the statement; true once a Return has run
+    abstract boolean execute(long[] frame);
+}
+
+class SkipNode extends StatementNode {
+    boolean execute(long[] frame) {
+        return false;
+    }
+}
+
+class LocalAssignNode extends StatementNode {
+    private final int slot;
+    private final ExprNode source;
+
+    LocalAssignNode(int slot, ExprNode source) {
+        this.slot = slot;
+        this.source = source;
+    }
+
+    boolean execute(long[] frame) {
+        frame[slot] = source.bits(frame);
+        return false;
+    }
+}
+
+// A local set to another's bits, undefined or not
+class LocalCopyNode extends StatementNode {
+    private final int slot, from;
+
+    LocalCopyNode(int slot, int from) {
+        this.slot = slot;
+        this.from = from;
+    }
+
+    boolean execute(long[] frame) {
+        frame[slot] = frame[from];
+        return false;
+    }
+}
+
+// A local set to the result of an operator, which is never undefined
+class IntLocalAssignNode extends StatementNode {
+    private final int slot;
+    private final IntNode source;
+
+    IntLocalAssignNode(int slot, IntNode source) {
+        this.slot = slot;
+        this.source = source;
+    }
+
+    boolean execute(long[] frame) {
+        frame[slot] = source.execute(frame);
+        return false;
+    }
+}
+
+class FloatLocalAssignNode extends StatementNode {
+    private final int slot;
+    private final FloatNode source;
+
+    FloatLocalAssignNode(int slot, FloatNode source) {
+        this.slot = slot;
+        this.source = source;
+    }
+
+    boolean execute(long[] frame) {
+        frame[slot] = Float.floatToRawIntBits(source.execute(frame));
+        return false;
+    }
+}
+
+class GlobalAssignNode extends StatementNode {
+    private final long[] globals;
+    private final int slot;
+    private final ExprNode source;
+
+    GlobalAssignNode(long[] globals, int slot, ExprNode source) {
+        this.globals = globals;
+        this.slot = slot;
+        this.source = source;
+    }
+
+    boolean execute(long[] frame) {
+        globals[slot] = source.bits(frame);
+        return false;
+    }
+}
+
+class IfNode extends StatementNode {
+    private final BoolNode test;
+    private final StatementNode thenBranch, elseBranch;
+
+    IfNode(BoolNode test, StatementNode thenBranch, StatementNode elseBranch) {
+        this.test = test;
+        this.thenBranch = thenBranch;
+        this.elseBranch = elseBranch;
+    }
+
+    boolean execute(long[] frame) {
+        return test.execute(frame) ? thenBranch.execute(frame) : elseBranch.execute(frame);
+    }
+}
+
+class WhileNode extends StatementNode {
+    private final BoolNode test;
+    private final StatementNode body;
+
+    WhileNode(BoolNode test, StatementNode body) {
+        this.test = test;
+        this.body = body;
+    }
+
+    boolean execute(long[] frame) {
+        while (test.execute(frame))
+            if (body.execute(frame))
+                return true;
+        return false;
+    }
+}
+
+class BlockNode extends StatementNode {
+    private final StatementNode[] statements;
+
+    BlockNode(StatementNode[] statements) {
+        this.statements = statements;
+    }
+
+    boolean execute(long[] frame) {
+        for (StatementNode s : statements)
+            if (s.execute(frame))
+                return true;
+        return false;
+    }
+}
+
+class ReturnNode extends StatementNode {
+    private final int slot;     // the frame's return slot
+    private final ExprNode value;
+
+    ReturnNode(int slot, ExprNode value) {
+        this.slot = slot;
+        this.value = value;
+    }
+
+    boolean execute(long[] frame) {
+        frame[slot] = value.bits(frame);
+        return true;
+    }
+}
+
+class CallStatementNode extends StatementNode {
+    private final CallTarget target;
+    private final ExprNode[] args;
+
+    CallStatementNode(CallTarget target, ExprNode[] args) {
+        this.target = target;
+        this.args = args;
+    }
+
+    boolean execute(long[] frame) {
+        target.run(args, frame);
+        return false;
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// A program lowered to executable nodes (see ExecNodes): the typed
+// operators of TypeTransformer's output pick a node class each, and the
+// slots of Slots become array indices, so running it dispatches on
+// nothing but the nodes' own execute methods.  Its final state is the
+// one Semantics.M and Evaluator.run give.
+// Usage: java Executable <source file>
+
+public class Executable {
+
+    private final Program program;
+    private final long[] globals;
+    private final Map<String, Function> functions = new HashMap<String, Function>();
+    private final Map<String, CallTarget> targets = new HashMap<String, CallTarget>();
+    private final CallTarget main;
+
+    // lowering state: the types of the current function's slots
+    private Type[] localTypes;
+    private final Type[] globalTypes;
+    private int returnSlot;
+
+    private Executable(Program p) {
+        program = p;
+        globals = new long[p.globals.size()];
+        globalTypes = types(p.globals, new Declarations());
+        for (Function f : p.functions)
+            if (functions.putIfAbsent(f.id, f) == null)
+                targets.put(f.id, new CallTarget(f));
+        for (Function f : functions.values()) {
+            localTypes = types(f.params, f.locals);
+            returnSlot = f.frameSize;
+            targets.get(f.id).body = lower(f.body);
+        }
+        main = targets.get("main");
+    }
+
+    // Lowers p, a checked and transformed program, giving its variables
+    // their slots unless the compiler already has.
+    public static Executable lower(Program p) {
+        for (Function f : p.functions)
+            if (!Slots.resolved(f)) {
+                Slots.resolve(p);
+                break;
+            }
+        return new Executable(p);
+    }
+
+    // Runs main from fresh globals; the result is main's frame and the
+    // globals, boxed as Semantics.M(p) would leave them.
+    public State run() {
+        if (main == null)
+            throw new IllegalArgumentException("no main function");
+        Function f = functions.get("main");
+        Arrays.fill(globals, Evaluator.UNDEF);
+        long[] frame = new long[main.frameSize + 1];
+        Arrays.fill(frame, Evaluator.UNDEF);
+        main.body.execute(frame);
+
+        State global = new State(program.globals);
+        Evaluator.box(global, program.globals, 0, globals);
+        State state = new State(f, global);
+        Evaluator.box(state, f.params, 0, frame);
+        Evaluator.box(state, f.locals, f.params.size(), frame);
+        return state;
+    }
+
+    private static Type[] types(Declarations first, Declarations rest) {
+        Type[] types = new Type[first.size() + rest.size()];
+        for (int i = 0; i < first.size(); i++)
+            types[i] = first.get(i).type;
+        for (int i = 0; i < rest.size(); i++)
+            types[first.size() + i] = rest.get(i).type;
+        return types;
+    }
+
+    StatementNode lower(Statement s) {
+        if (s instanceof Skip)
+            return new SkipNode();
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            ExprNode source = lower(a.source);
+            checkSlot(a.target);
+            if (a.target.global)
+                return new GlobalAssignNode(globals, a.target.slot, source);
+            return assign(a.target.slot, source);
+        }
+        if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            return new IfNode(bool(c.test), lower(c.thenBranch), lower(c.elseBranch));
+        }
+        if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            return new WhileNode(bool(l.test), lower(l.body));
+        }
+        if (s instanceof Block) {
+            Block b = (Block) s;
+            StatementNode[] statements = new StatementNode[b.statements.size()];
+            for (int i = 0; i < statements.length; i++)
+                statements[i] = lower(b.statements.get(i));
+            return new BlockNode(statements);
+        }
+        if (s instanceof Return)
+            return new ReturnNode(returnSlot, lower(((Return) s).retVal));
+        if (s instanceof CallStatement) {
+            CallStatement c = (CallStatement) s;
+            return new CallStatementNode(target(c.id), lower(c.args));
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    // The local slot set to source, by the node for the shape of source:
+    // a copy of a local, an operator's result, or any value
+    private static StatementNode assign(int slot, ExprNode source) {
+        int from = source instanceof IntNode ? IntNode.localSlot((IntNode) source)
+                : source instanceof FloatNode ? FloatNode.localSlot((FloatNode) source) : -1;
+        if (from >= 0)
+            return new LocalCopyNode(slot, from);
+        if (source instanceof IntBinaryNode)
+            return new IntLocalAssignNode(slot, (IntNode) source);
+        if (source instanceof FloatBinaryNode)
+            return new FloatLocalAssignNode(slot, (FloatNode) source);
+        return new LocalAssignNode(slot, source);
+    }
+
+    ExprNode lower(Expression e) {
+        if (e instanceof Variable) {
+            Variable v = (Variable) e;
+            checkSlot(v);
+            Type type = (v.global ? globalTypes : localTypes)[v.slot];
+            if (type == Type.INT || type == Type.CHAR)
+                return v.global ? new IntGlobalReadNode(globals, v.slot) : new IntLocalReadNode(v.slot);
+            if (type == Type.FLOAT)
+                return v.global ? new FloatGlobalReadNode(globals, v.slot) : new FloatLocalReadNode(v.slot);
+            if (type == Type.BOOL)
+                return v.global ? new BoolGlobalReadNode(globals, v.slot) : new BoolLocalReadNode(v.slot);
+        } else if (e instanceof Value) {
+            Value v = (Value) e;
+            if (v.isUndef())
+                throw new IllegalArgumentException("reference to undef value");
+            if (v instanceof IntValue) return new IntConstNode(v.intValue());
+            if (v instanceof CharValue) return new IntConstNode(v.charValue());
+            if (v instanceof FloatValue) return new FloatConstNode(v.floatValue());
+            if (v instanceof BoolValue) return new BoolConstNode(v.boolValue());
+        } else if (e instanceof Binary) {
+            return lower((Binary) e);
+        } else if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            switch (u.op.code) {
+                case NOT: return new NotNode(bool(u.term));
+                case INT_NEG: return new IntNegNode(integer(u.term));
+                case FLOAT_NEG: return new FloatNegNode(real(u.term));
+                case I2F: return new IntToFloatNode(integer(u.term));
+                case F2I: return new FloatToIntNode(real(u.term));
+                case C2I: return integer(u.term);   // a char is its int
+                case I2C: return new IntToCharNode(integer(u.term));
+                default: break;
+            }
+        } else if (e instanceof CallExpression) {
+            CallExpression c = (CallExpression) e;
+            CallTarget target = target(c.id);
+            Type type = functions.get(c.id).type;
+            if (type == Type.INT || type == Type.CHAR)
+                return new IntCallNode(target, lower(c.args));
+            if (type == Type.FLOAT)
+                return new FloatCallNode(target, lower(c.args));
+            if (type == Type.BOOL)
+                return new BoolCallNode(target, lower(c.args));
+        }
+        throw new IllegalArgumentException("should never reach here");
+    }
+
+    private ExprNode lower(Binary b) {
+        switch (b.op.code) {
+            case INT_PLUS: return new IntAddNode(integer(b.term1), integer(b.term2));
+            case INT_MINUS: return new IntSubNode(integer(b.term1), integer(b.term2));
+            case INT_TIMES: return new IntMulNode(integer(b.term1), integer(b.term2));
+            case INT_DIV: return new IntDivNode(integer(b.term1), integer(b.term2));
+            case INT_MOD: return new IntModNode(integer(b.term1), integer(b.term2));
+            case INT_LT: case CHAR_LT: return new IntLtNode(integer(b.term1), integer(b.term2));
+            case INT_LE: case CHAR_LE: return new IntLeNode(integer(b.term1), integer(b.term2));
+            case INT_GT: case CHAR_GT: return new IntGtNode(integer(b.term1), integer(b.term2));
+            case INT_GE: case CHAR_GE: return new IntGeNode(integer(b.term1), integer(b.term2));
+            case INT_EQ: case CHAR_EQ: return new IntEqNode(integer(b.term1), integer(b.term2));
+            case INT_NE: case CHAR_NE: return new IntNeNode(integer(b.term1), integer(b.term2));
+
+            case FLOAT_PLUS: return new FloatAddNode(real(b.term1), real(b.term2));
+            case FLOAT_MINUS: return new FloatSubNode(real(b.term1), real(b.term2));
+            case FLOAT_TIMES: return new FloatMulNode(real(b.term1), real(b.term2));
+            case FLOAT_DIV: return new FloatDivNode(real(b.term1), real(b.term2));
+            case FLOAT_LT: return new FloatLtNode(real(b.term1), real(b.term2));
+            case FLOAT_LE: return new FloatLeNode(real(b.term1), real(b.term2));
+            case FLOAT_GT: return new FloatGtNode(real(b.term1), real(b.term2));
+            case FLOAT_GE: return new FloatGeNode(real(b.term1), real(b.term2));
+            case FLOAT_EQ: return new FloatEqNode(real(b.term1), real(b.term2));
+            case FLOAT_NE: return new FloatNeNode(real(b.term1), real(b.term2));
+
+            case AND: return new AndNode(bool(b.term1), bool(b.term2));
+            case OR: return new OrNode(bool(b.term1), bool(b.term2));
+            case BOOL_EQ: return new BoolEqNode(bool(b.term1), bool(b.term2));
+            case BOOL_NE: return new BoolNeNode(bool(b.term1), bool(b.term2));
+            case BOOL_LT: return new BoolLtNode(bool(b.term1), bool(b.term2));
+            case BOOL_LE: return new BoolLeNode(bool(b.term1), bool(b.term2));
+            case BOOL_GT: return new BoolGtNode(bool(b.term1), bool(b.term2));
+            case BOOL_GE: return new BoolGeNode(bool(b.term1), bool(b.term2));
+            default: throw new IllegalArgumentException("should never reach here");
+        }
+    }
+
+    private ExprNode[] lower(Expressions args) {
+        ExprNode[] nodes = new ExprNode[args.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = lower(args.get(i));
+        return nodes;
+    }
+
+    private IntNode integer(Expression e) {
+        ExprNode n = lower(e);
+        if (!(n instanceof IntNode))
+            throw new IllegalArgumentException("not an int or char: " + e);
+        return (IntNode) n;
+    }
+
+    private FloatNode real(Expression e) {
+        ExprNode n = lower(e);
+        if (!(n instanceof FloatNode))
+            throw new IllegalArgumentException("not a float: " + e);
+        return (FloatNode) n;
+    }
+
+    private BoolNode bool(Expression e) {
+        ExprNode n = lower(e);
+        if (!(n instanceof BoolNode))
+            throw new IllegalArgumentException("not a bool: " + e);
+        return (BoolNode) n;
+    }
+
+    private CallTarget target(String id) {
+        CallTarget target = targets.get(id);
+        if (target == null)
+            throw new IllegalArgumentException("undefined function: " + id);
+        return target;
+    }
+
+    private static void checkSlot(VariableRef v) {
+        if (v.slot < 0)
+            throw new IllegalArgumentException("unresolved variable: " + v);
+    }
+
+    public static void main(String args[]) throws java.io.IOException {
+        CompileResult result = Compiler.compileFile(args[0]);
+        if (!result.ok()) {
+            result.printDiagnostics(System.err, args[0]);
+            System.exit(1);
+        }
+        State state = lower(result.output()).run();
+        System.out.println("Final State");
+        state.display();
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Hash-consing for Expression trees: intern() returns, for any tree, the
+// one canonical tree with the same structure, so identical subtrees are
+// built once and shared.  Children are interned first, so a node's key
+// compares its children by identity and carries a hash computed once;
+// two canonical expressions are structurally equal exactly when they are
+// the same object.
+//
+// Subtrees without variables (literals, casts of literals, calls on
+// them) are shared across the whole program.  Subtrees that mention a
+// variable are shared only within one function, between calls to
+// beginFunction(): x in f and x in g may have different types.
+//
+// A shared node keeps the span of its first occurrence, so share trees
+// only once they have been checked.  Canonical nodes must not be mutated.
+
+public class ExpressionFactory {
+
+    private final Map<Key, Expression> shared = new HashMap<Key, Expression>();
+    private final Map<Key, Expression> local = new HashMap<Key, Expression>();
+    private final Set<Expression> sharedNodes = identitySet();
+    private final Set<Expression> localNodes = identitySet();
+    private int requests;
+
+    public void beginFunction() {
+        local.clear();
+        localNodes.clear();
+    }
+
+    public int size() { // canonical nodes currently reachable by intern()
+        return shared.size() + local.size();
+    }
+
+    public int requests() { // nodes passed to intern(), children included
+        return requests;
+    }
+
+    // Shares the expressions of every function body of p in place.
+    public Program share(Program p) {
+        for (Function f : p.functions) {
+            beginFunction();
+            share(f.body);
+        }
+        return p;
+    }
+
+    public void share(Statement s) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            a.source = intern(a.source);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            c.test = intern(c.test);
+            share(c.thenBranch);
+            share(c.elseBranch);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            l.test = intern(l.test);
+            share(l.body);
+        } else if (s instanceof Block) {
+            for (Statement stmt : ((Block) s).statements)
+                share(stmt);
+        } else if (s instanceof Return) {
+            Return r = (Return) s;
+            r.retVal = intern(r.retVal);
+        } else if (s instanceof CallStatement) {
+            intern(((CallStatement) s).args);
+        }
+    }
+
+    public Expression intern(Expression e) {
+        requests++;
+        if (sharedNodes.contains(e) || localNodes.contains(e))
+            return e;
+        Key key;
+        boolean variable;
+        if (e instanceof Variable) {
+            key = new Key(((Variable) e).id, 0, null, null, null);
+            variable = true;
+        } else if (e instanceof Value) {
+            Value v = (Value) e;
+            if (v.isUndef())
+                return e;
+            key = new Key(v.type().getId(), bits(v), null, null, null);
+            variable = false;
+        } else if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            b.term1 = intern(b.term1);
+            b.term2 = intern(b.term2);
+            key = new Key(b.op.val, 0, b.term1, b.term2, null);
+            variable = isLocal(b.term1) || isLocal(b.term2);
+        } else if (e instanceof Unary) {
+            Unary u = (Unary) e;
+            u.term = intern(u.term);
+            key = new Key(u.op.val, 0, u.term, null, null);
+            variable = isLocal(u.term);
+        } else if (e instanceof CallExpression) {
+            CallExpression c = (CallExpression) e;
+            variable = intern(c.args);
+            key = new Key(c.id, 0, null, null, c.args.toArray(new Expression[0]));
+        } else
+            throw new IllegalArgumentException("should never reach here");
+
+        Expression canonical = (variable ? local : shared).putIfAbsent(key, e);
+        if (canonical != null)
+            return canonical;
+        (variable ? localNodes : sharedNodes).add(e);
+        return e;
+    }
+
+    // Interns each argument in place; true if any mentions a variable.
+    private boolean intern(Expressions args) {
+        boolean variable = false;
+        for (int i = 0; i < args.size(); i++) {
+            args.set(i, intern(args.get(i)));
+            variable |= isLocal(args.get(i));
+        }
+        return variable;
+    }
+
+    private boolean isLocal(Expression canonical) {
+        return localNodes.contains(canonical);
+    }
+
+    private static Set<Expression> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+    }
+
+    private static long bits(Value v) {
+        if (v instanceof FloatValue)
+            return Float.floatToIntBits(v.floatValue());
+        if (v instanceof CharValue)
+            return v.charValue();
+        return v.intValue();
+    }
+
+    // Structural key of a node whose children are already canonical
+    private static final class Key {
+        final String label;        // operator, variable, function or literal type
+        final long bits;           // literal value
+        final Expression a, b;     // canonical operands
+        final Expression[] args;   // canonical call arguments
+        final int hash;
+
+        Key(String label, long bits, Expression a, Expression b, Expression[] args) {
+            this.label = label;
+            this.bits = bits;
+            this.a = a;
+            this.b = b;
+            this.args = args;
+            int h = label.hashCode() * 31 + Long.hashCode(bits);
+            h = h * 31 + System.identityHashCode(a);
+            h = h * 31 + System.identityHashCode(b);
+            if (args != null)
+                for (Expression arg : args)
+                    h = h * 31 + System.identityHashCode(arg);
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            if (hash != k.hash || bits != k.bits || a != k.a || b != k.b || !label.equals(k.label))
+                return false;
+            if (args == null || k.args == null)
+                return args == k.args;
+            if (args.length != k.args.length)
+                return false;
+            for (int i = 0; i < args.length; i++)
+                if (args[i] != k.args[i])
+                    return false;
+            return true;
+        }
+    }
+}
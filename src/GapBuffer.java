@@ -0,0 +1,74 @@
+import java.util.Arrays;
+
+// Editable source text.  Keeps a gap at the last edit point, so a run of
+// nearby edits costs time proportional to the edits, not the file size.
+
+public class GapBuffer implements CharSequence {
+
+    private char[] buf;
+    private int gapStart, gapEnd;
+
+    public GapBuffer(CharSequence text) {
+        int n = text.length();
+        buf = new char[n + 1024];
+        for (int i = 0; i < n; i++)
+            buf[i] = text.charAt(i);
+        gapStart = n;
+        gapEnd = buf.length;
+    }
+
+    public int length() {
+        return buf.length - (gapEnd - gapStart);
+    }
+
+    public char charAt(int index) {
+        return index < gapStart ? buf[index] : buf[index + gapEnd - gapStart];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++)
+            sb.append(charAt(i));
+        return sb.toString();
+    }
+
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+
+    public void replace(int offset, int removed, CharSequence inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > length())
+            throw new IndexOutOfBoundsException("edit [" + offset + ", " + (offset + removed)
+                    + ") of text of length " + length());
+        moveGap(offset);
+        gapEnd += removed;
+        int n = inserted.length();
+        if (n > gapEnd - gapStart)
+            grow(n);
+        for (int i = 0; i < n; i++)
+            buf[gapStart++] = inserted.charAt(i);
+    }
+
+    private void moveGap(int offset) {
+        if (offset < gapStart) {
+            int n = gapStart - offset;
+            System.arraycopy(buf, offset, buf, gapEnd - n, n);
+            gapStart -= n;
+            gapEnd -= n;
+        } else if (offset > gapStart) {
+            int n = offset - gapStart;
+            System.arraycopy(buf, gapEnd, buf, gapStart, n);
+            gapStart += n;
+            gapEnd += n;
+        }
+    }
+
+    private void grow(int needed) {
+        int tail = buf.length - gapEnd;
+        int size = Math.max(buf.length * 2, length() + needed + 1024);
+        char[] b = Arrays.copyOf(buf, size);
+        System.arraycopy(buf, gapEnd, b, size - tail, tail);
+        buf = b;
+        gapEnd = size - tail;
+    }
+}
@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps a parsed Program up to date with edits to its source.  Each edit
+// relexes from the end of the last top-level item whose parse did not
+// read as far as the edit (an item with a syntax error read the token
+// after it too) and reparses function by function until the token
+// stream is back at the start of an item that was not touched; that item
+// and everything after it is reused as is.
+//
+// An edit costs time in the text relexed and the distance from the last
+// edit, not in the size of the file.  The items are kept in a gap array
+// split at the last edit, and the items after the gap hold their offsets
+// relative to the end of the text and their indices in the Program's
+// lists relative to the lists' ends, so a change of length moves them
+// all at once; the LineTable does the same with its line starts.  Each
+// item is the Origin of its nodes, whose spans are kept relative to the
+// item's start, so they move with it too.
+
+public class IncrementalParser {
+
+    private class Item implements Origin {
+        int start, end;          // source range of the function or declaration
+        int follow;              // end of the text its parse depended on: end, or
+                                 // the token after it if it had a syntax error
+        int functionAt, globalAt; // index of its function and first global in the Program
+        boolean afterGap;        // whether the above are relative
+        Function function;       // a function, or
+        Declarations globals;    // the globals of one global declaration
+
+        public int start() {
+            return afterGap ? start + length : start;
+        }
+    }
+
+    private final GapBuffer text;
+    private Item[] items = new Item[64];
+    private int gapStart = 0, gapEnd = 64;  // items[gapStart, gapEnd) is unused
+    private int length;                     // of the text, for the items after the gap
+    private final LineTable lines;
+    private final Program program;
+    private int reparsed;
+
+    public IncrementalParser(CharSequence source) {
+        text = new GapBuffer(source);
+        Lexer lexer = new Lexer(text, 0, text.length());
+        program = new Program(new Declarations(), new Functions());
+        insert(parse(new Parser(lexer), -1, 0), 0, 0);
+        length = text.length();
+        lines = lexer.lines();
+        program.lines = lines;
+    }
+
+    public Program program() { // of the text as edited so far
+        return program;
+    }
+
+    public CharSequence text() {
+        return text;
+    }
+
+    public int reparsed() { // top-level items reparsed by the last edit
+        return reparsed;
+    }
+
+    public void edit(int offset, int removed, CharSequence inserted) {
+        int oldLength = text.length();
+        int delta = inserted.length() - removed;
+        text.replace(offset, removed, inserted);
+
+        // first item whose parse read up to or past the edit; lexing
+        // restarts at the end of the item before it, a token boundary
+        int first = search(offset, false);
+        int restart = first == 0 ? 0 : end(first - 1);
+
+        Lexer lexer = new Lexer(text, restart, text.length());
+        Parser parser = new Parser(lexer);
+        List<Item> fresh = parse(parser, offset + inserted.length(), delta);
+        long stopped = parser.stoppedAt();
+        int resync = stopped == Span.NONE ? oldLength + 1 : Span.start(stopped) - delta;
+        int reuse = search(resync, true);
+
+        // replace items [first, reuse) by fresh, in the items and in the
+        // Program's lists; the rest then moves by delta with length
+        int functions = functionIndex(first), globals = globalIndex(first);
+        int functionsEnd = functionIndex(reuse), globalsEnd = globalIndex(reuse);
+        moveGap(first);
+        program.functions.subList(functions, functionsEnd).clear();
+        program.globals.subList(globals, globalsEnd).clear();
+        for (int i = gapEnd; i < gapEnd + reuse - first; i++)
+            items[i] = null;
+        gapEnd += reuse - first;
+        insert(fresh, functions, globals);
+        length = text.length();
+        lines.splice(restart, resync, lexer.lines(), oldLength, delta);
+        reparsed = fresh.size();
+    }
+
+    // Parse items until end of file or, once past stable (new offsets),
+    // until the next token starts where an old item started.
+    private List<Item> parse(Parser parser, int stable, int delta) {
+        List<Item> parsed = new ArrayList<Item>();
+        for (long stopped; (stopped = parser.stoppedAt()) != Span.NONE; ) {
+            int next = Span.start(stopped);
+            if (stable >= 0 && next >= stable && startsItem(next - delta))
+                break;
+            Item item = new Item();
+            item.start = next;
+            item.globals = new Declarations();
+            Functions fs = new Functions();
+            int errors = parser.diagnostics().count();
+            parser.relativeTo(item);
+            parser.topLevel(item.globals, fs);
+            item.function = fs.isEmpty() ? null : fs.get(0);
+            item.end = parser.lastEnd();
+            stopped = parser.stoppedAt();
+            if (parser.diagnostics().count() == errors)
+                item.follow = item.end;
+            else    // recovery stopped at the next token, or end of file
+                item.follow = stopped == Span.NONE ? text.length() : Span.end(stopped);
+            parsed.add(item);
+        }
+        return parsed;
+    }
+
+    private boolean startsItem(int offset) {
+        int i = search(offset, true);
+        return i < size() && start(i) == offset;
+    }
+
+    // The first item that starts (byStart) or whose parse read up to
+    // offset or past it
+    private int search(int offset, boolean byStart) {
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((byStart ? start(mid) : follow(mid)) < offset) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private int size() {
+        return items.length - (gapEnd - gapStart);
+    }
+
+    private int start(int i) {
+        return i < gapStart ? items[i].start : items[i + gapEnd - gapStart].start + length;
+    }
+
+    private int end(int i) {
+        return i < gapStart ? items[i].end : items[i + gapEnd - gapStart].end + length;
+    }
+
+    private int follow(int i) {
+        return i < gapStart ? items[i].follow : items[i + gapEnd - gapStart].follow + length;
+    }
+
+    private int functionIndex(int i) { // of item i's function, or where it would go
+        if (i == size()) return program.functions.size();
+        return i < gapStart ? items[i].functionAt
+                : items[i + gapEnd - gapStart].functionAt + program.functions.size();
+    }
+
+    private int globalIndex(int i) {
+        if (i == size()) return program.globals.size();
+        return i < gapStart ? items[i].globalAt
+                : items[i + gapEnd - gapStart].globalAt + program.globals.size();
+    }
+
+    // Moves the gap to before item at, turning the offsets and indices of
+    // the items it passes from absolute to relative or back
+    private void moveGap(int at) {
+        int functions = program.functions.size(), globals = program.globals.size();
+        while (gapStart > at) {
+            Item item = items[--gapStart];
+            item.start -= length;
+            item.end -= length;
+            item.follow -= length;
+            item.functionAt -= functions;
+            item.globalAt -= globals;
+            item.afterGap = true;
+            items[--gapEnd] = item;
+            items[gapStart] = null;
+        }
+        while (gapStart < at) {
+            Item item = items[gapEnd];
+            items[gapEnd++] = null;
+            item.start += length;
+            item.end += length;
+            item.follow += length;
+            item.functionAt += functions;
+            item.globalAt += globals;
+            item.afterGap = false;
+            items[gapStart++] = item;
+        }
+    }
+
+    // Puts fresh at the gap, its function and globals in the Program's
+    // lists from the given indices on
+    private void insert(List<Item> fresh, int functions, int globals) {
+        if (fresh.size() > gapEnd - gapStart) {
+            int tail = items.length - gapEnd;
+            Item[] grown = new Item[Math.max(2 * items.length, size() + fresh.size() + 64)];
+            System.arraycopy(items, 0, grown, 0, gapStart);
+            System.arraycopy(items, gapEnd, grown, grown.length - tail, tail);
+            items = grown;
+            gapEnd = grown.length - tail;
+        }
+        for (Item item : fresh) {
+            item.functionAt = functions;
+            item.globalAt = globals;
+            if (item.function != null)
+                program.functions.add(functions++, item.function);
+            program.globals.addAll(globals, item.globals);
+            globals += item.globals.size();
+            items[gapStart++] = item;
+        }
+    }
+}
@@ -1,68 +1,92 @@
-
-
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 
-public class Lexer {
+public class Lexer implements TokenStream {
 
     private char ch = ' ';
-    private BufferedReader input;
-    private String line = "";
-    private int lineNo = 0;
-    private int col = 1;
-    private final String letters = "abcdefghijklmnopqrstuvwxyz" + "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-    private final String digits = "0123456789";
+    private final CharSequence input;
+    private int pos;          // offset of the char following ch
+    private final int end;
+    private final TokenTable table = new TokenTable();
+    private final LineTable lines;
+    private final Diagnostics diagnostics = new Diagnostics();
+    private int tokenStart;   // offset of the first char of the last token
     private final char eoLnCh = '\n';
     private final char eofCh = '\004';
 
 
-    public Lexer(String fileName) { // source filename
-        try {
-            input = new BufferedReader(new FileReader(fileName));
-        } catch (FileNotFoundException e) {
-            System.out.println("File not found: " + fileName);
-            System.exit(1);
+    public Lexer(String fileName) throws IOException { // source filename
+        this(map(fileName));
+    }
+
+    public Lexer(ByteBuffer source) { // ASCII source bytes
+        this(new ByteSource(source));
+    }
+
+    private Lexer(CharSequence source) {
+        this(source, 0, source.length());
+    }
+
+    public Lexer(CharSequence source, int start, int end) { // source[start, end)
+        input = source;
+        pos = start;
+        this.end = end;
+        lines = new LineTable(start);
+    }
+
+    // Lexer(String) takes a file name, so in-memory text comes in here
+    public static Lexer forSource(CharSequence source) {
+        return new Lexer(source);
+    }
+
+    // A missing or unreadable file is the caller's to report
+    private static CharSequence map(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+            return new ByteSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
         }
     }
 
     private char nextChar() { // Return next char
         if (ch == eofCh)
             error("Attempt to read past end of file");
-        col++;
-        if (col >= line.length()) {
-            try {
-                line = input.readLine();
-            } catch (IOException e) {
-                System.err.println(e);
-                System.exit(1);
-            } // try
-            if (line == null) // at end of file
-                line = "" + eofCh;
-            else {
-                lineNo++;
-                line += eoLnCh;
-            } // if line
-            col = 0;
-        } // if col
-        return line.charAt(col);
+        if (pos++ >= end)
+            return eofCh;
+        return input.charAt(pos - 1);
     }
 
 
     public Token next() { // Return next token
         do {
+            tokenStart = pos - 1;
             if (isLetter(ch)) { // ident or keyword
-                String spelling = concat(letters + digits);
-                return Token.keyword(spelling);
+                int start = pos - 1;
+                do {
+                    ch = nextChar();
+                } while (isLetter(ch) || isDigit(ch));
+                Token k = Token.keyword(input, start, pos - 1 - start);
+                return k != null ? k : table.intern(TokenType.Identifier, input, start, pos - 1 - start);
             } else if (isDigit(ch)) { // int or float literal
-                String number = concat(digits);
-                if (ch != '.')  // int Literal
-                    return Token.mkIntLiteral(number);
-                number += concat(digits);
-                return Token.mkFloatLiteral(number);
+                int start = pos - 1;
+                skipDigits();
+                if (ch != '.') { // int Literal
+                    if (!fitsInt(start, pos - 1)) {  // report, and lex it as 0
+                        diagnostics.error(Span.of(start, pos - 1), "integer literal out of range");
+                        return table.intern(TokenType.IntLiteral, "0", 0, 1);
+                    }
+                    return table.intern(TokenType.IntLiteral, input, start, pos - 1 - start);
+                }
+                skipDigits();
+                return table.intern(TokenType.FloatLiteral, input, start, pos - 1 - start);
             } else switch (ch) {
                 case ' ':
                 case '\t':
                 case '\r':
+                    ch = nextChar();
+                    break;
                 case eoLnCh:
+                    lines.addLine(pos);
                     ch = nextChar();
                     break;
 
@@ -72,15 +96,29 @@ public class Lexer {
                     // comment
                     do {
                         ch = nextChar();
-                    } while (ch != eoLnCh);
-                    ch = nextChar();
+                    } while (ch != eoLnCh && ch != eofCh);
+                    if (ch == eoLnCh) {
+                        lines.addLine(pos);
+                        ch = nextChar();
+                    }
                     break;
 
                 case '\'':  // char literal
-                    char ch1 = nextChar();
-                    nextChar(); // get '
-                    ch = nextChar();
-                    return Token.mkCharLiteral("" + ch1);
+                    int at = pos;
+                    char c = nextChar();
+                    if (c == eofCh) {
+                        error("Unterminated char literal");
+                        ch = eofCh;
+                        return Token.eofTok;
+                    }
+                    if (c == eoLnCh)  // '\n' spans a line break
+                        lines.addLine(pos);
+                    ch = nextChar(); // get '
+                    if (ch != '\'')  // report, and lex ch as the next token
+                        error("Unterminated char literal");
+                    else
+                        ch = nextChar();
+                    return table.intern(TokenType.CharLiteral, input, at, 1);
 
                 case eofCh:
                     return Token.eofTok;
@@ -142,13 +180,26 @@ public class Lexer {
                     return chkOpt('=', Token.notTok,
                             Token.noteqTok);
 
-                default:
+                default:  // report and skip it
                     error("Illegal character " + ch);
+                    ch = nextChar();
             } // switch
         } while (true);
     } // next
 
 
+    public long span() { // position of the token last returned by next()
+        return Span.of(tokenStart, pos - 1);
+    }
+
+    public LineTable lines() {
+        return lines;
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
     private boolean isLetter(char c) {
         return (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z');
     }
@@ -159,8 +210,10 @@ public class Lexer {
 
     private void check(char c) {
         ch = nextChar();
-        if (ch != c)
+        if (ch != c) {  // report, and lex ch as the next token
             error("Illegal character, expecting " + c);
+            return;
+        }
         ch = nextChar();
     }
 
@@ -171,27 +224,36 @@ public class Lexer {
         return two;
     }
 
-    private String concat(String set) {
-        String r = "";
+    private boolean fitsInt(int from, int to) { // the digits of input[from, to)
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = 10 * value + (input.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) return false;
+        }
+        return true;
+    }
+
+    private void skipDigits() {
         do {
-            r += ch;
             ch = nextChar();
-        } while (set.indexOf(ch) >= 0);
-        return r;
+        } while (isDigit(ch));
     }
 
     public void error(String msg) {
-        System.err.print(line);
-        System.err.println("Error: column " + col + " " + msg);
-        System.exit(1);
+        int at = Math.max(Math.min(pos, end) - 1, 0);   // offset of ch
+        diagnostics.error(Span.of(at, Math.min(at + 1, end)), msg);
     }
 
-    static public void main(String[] argv) {
+    static public void main(String[] argv) throws IOException {
         Lexer lexer = new Lexer(argv[0]);
         Token tok = lexer.next();
         while (tok != Token.eofTok) {
             System.out.println(tok.toString());
             tok = lexer.next();
         }
+        if (lexer.diagnostics().hasErrors()) {
+            lexer.diagnostics().print(System.err, lexer.lines());
+            System.exit(1);
+        }
     } // main
 }
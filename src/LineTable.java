@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+// Offsets of the line starts of one source file, recorded by the Lexer
+// as it passes each newline.  Kept once per file so that spans can be
+// reported as line/column without holding on to the source text.
+//
+// An edited file (see IncrementalParser) keeps a gap in the array at its
+// last edit.  The starts after the gap are kept relative to the end of
+// the text, so an edit moves them all by changing length alone.
+
+public class LineTable {
+
+    private int[] starts = new int[64];
+    private int count = 0;
+    private int gapStart = 0, gapEnd = 64;   // starts[gapStart, gapEnd) is unused
+    private int length;         // of the text, for the starts after the gap
+
+    public LineTable() {
+    }
+
+    public LineTable(int firstLineStart) {
+        addLine(firstLineStart);
+    }
+
+    void addLine(int start) {
+        moveGap(count);
+        if (gapStart == gapEnd)
+            grow(1);
+        starts[gapStart++] = start;
+        count++;
+    }
+
+    void addAll(LineTable t) { // line starts of a following chunk of the file
+        for (int i = 0; i < t.count; i++)
+            if (count == 0 || t.start(i) > start(count - 1))
+                addLine(t.start(i));
+    }
+
+    // After an edit that made the text oldLength + delta long and moved
+    // everything at or after old offset to by delta: keep the line starts
+    // up to from, take the ones t found by relexing (from, to + delta],
+    // and move the rest by delta.  Whether to itself is a line start
+    // depends on the char before it, which the edit may have changed, so
+    // that one comes from t.  Costs time in the lines relexed and the
+    // distance from the last edit, not in the size of the file.
+    void splice(int from, int to, LineTable t, int oldLength, int delta) {
+        length = oldLength;
+        moveGap(count == 0 ? 0 : line(from));
+        while (gapEnd < starts.length && starts[gapEnd] + length <= to) {
+            gapEnd++;
+            count--;
+        }
+        length += delta;
+        for (int i = 0; i < t.count; i++) {
+            int s = t.start(i);
+            if (s > from && s <= to + delta) {
+                if (gapStart == gapEnd)
+                    grow(1);
+                starts[gapStart++] = s;
+                count++;
+            }
+        }
+    }
+
+    private void moveGap(int at) { // line index of the first start after the gap
+        while (gapStart > at)
+            starts[--gapEnd] = starts[--gapStart] - length;
+        while (gapStart < at)
+            starts[gapStart++] = starts[gapEnd++] + length;
+    }
+
+    private void grow(int needed) {
+        int tail = starts.length - gapEnd;
+        int size = Math.max(starts.length * 2, count + needed);
+        int[] s = Arrays.copyOf(starts, size);
+        System.arraycopy(starts, gapEnd, s, size - tail, tail);
+        starts = s;
+        gapEnd = size - tail;
+    }
+
+    public int lines() {
+        return count;
+    }
+
+    int start(int i) { // offset of the start of 0-based line i
+        return i < gapStart ? starts[i] : starts[i + gapEnd - gapStart] + length;
+    }
+
+    public int line(int offset) { // 1-based line containing offset
+        int lo = 0, hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (start(mid) <= offset) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo + 1;
+    }
+
+    public int column(int offset) { // 1-based column of offset
+        return count == 0 ? offset + 1 : offset - start(line(offset) - 1) + 1;
+    }
+
+    public String format(long span) {
+        if (span == Span.NONE) return "unknown position";
+        int at = Span.start(span);
+        return "line " + line(at) + ", column " + column(at);
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Tokenizes a large source in parallel.  Clite comments end at the end
+// of the line and there are no multi-line literals, so every line start
+// is a token boundary: the source is cut into chunks at newlines, each
+// chunk is lexed by its own Lexer on a ForkJoinPool, and the results are
+// stitched into one TokenArray equal to what Lexer.next() would return.
+
+public class ParallelLexer {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelLexer() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelLexer(int chunkSize) {
+        this(ForkJoinPool.commonPool(), chunkSize);
+    }
+
+    public ParallelLexer(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public int parallelism() {
+        return pool.getParallelism();
+    }
+
+    public TokenArray tokenize(CharSequence source) {
+        List<ForkJoinTask<TokenArray>> chunks = new ArrayList<ForkJoinTask<TokenArray>>();
+        int start = 0;
+        while (start < source.length()) {
+            int end = boundary(source, start + chunkSize);
+            int from = start;
+            chunks.add(pool.submit(() -> lex(source, from, end)));
+            start = end;
+        }
+        TokenArray tokens = new TokenArray(source.length() / 4);
+        for (ForkJoinTask<TokenArray> chunk : chunks)
+            tokens.addAll(chunk.join());
+        if (chunks.isEmpty())
+            tokens.lines().addLine(0);
+        tokens.add(Token.eofTok, Span.of(source.length(), source.length()));
+        return tokens;
+    }
+
+    private static TokenArray lex(CharSequence source, int start, int end) {
+        Lexer lexer = new Lexer(source, start, end);
+        TokenArray tokens = new TokenArray((end - start) / 4);
+        for (Token t = lexer.next(); t != Token.eofTok; t = lexer.next())
+            tokens.add(t, lexer.span());
+        tokens.lines().addAll(lexer.lines());
+        tokens.diagnostics().addAll(lexer.diagnostics());
+        return tokens;
+    }
+
+    // First line start at or after from.  A newline within two chars of a
+    // quote may sit inside a char literal such as '\n', so it is passed over.
+    static int boundary(CharSequence source, int from) {
+        int n = source.length();
+        for (int i = Math.max(from, 1) - 1; i < n; i++) {
+            if (source.charAt(i) != '\n') continue;
+            if (i >= 1 && source.charAt(i - 1) == '\'') continue;
+            if (i >= 2 && source.charAt(i - 2) == '\'') continue;
+            return i + 1;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Parses the top-level items of a program in parallel.  A pre-scan over
+// the tokens finds where each global declaration (up to its ';') and each
+// function (up to the '}' closing its body) ends; runs of consecutive
+// items are then parsed by separate Parsers on a ForkJoinPool and the
+// results concatenated in source order.  The Program is the same one
+// Parser.program() builds from the same tokens.  If any range reports a
+// syntax error the whole source is reparsed sequentially, so that error
+// recovery and the diagnostics are also exactly the sequential ones.
+
+public class ParallelParser {
+
+    public static final int DEFAULT_TASK_SIZE = 1 << 14; // tokens per task
+
+    private final ForkJoinPool pool;
+    private final int taskSize;
+
+    public ParallelParser() {
+        this(DEFAULT_TASK_SIZE);
+    }
+
+    public ParallelParser(int taskSize) {
+        this(ForkJoinPool.commonPool(), taskSize);
+    }
+
+    public ParallelParser(ForkJoinPool pool, int taskSize) {
+        if (taskSize <= 0)
+            throw new IllegalArgumentException("task size must be positive: " + taskSize);
+        this.pool = pool;
+        this.taskSize = taskSize;
+    }
+
+    public int parallelism() {
+        return pool.getParallelism();
+    }
+
+    public Program parse(CharSequence source) {
+        return parse(new ParallelLexer(pool, ParallelLexer.DEFAULT_CHUNK_SIZE).tokenize(source));
+    }
+
+    public Program parse(TokenArray tokens) {
+        List<ForkJoinTask<Program>> parts = new ArrayList<ForkJoinTask<Program>>();
+        List<TokenStream> ranges = new ArrayList<TokenStream>();
+        int from = 0;
+        for (int end : itemEnds(tokens)) {
+            if (end - from < taskSize && end != tokens.size() - 1)
+                continue;
+            TokenStream range = tokens.range(from, end);
+            ranges.add(range);
+            parts.add(pool.submit(() -> new Parser(range).program()));
+            from = end;
+        }
+
+        Declarations globals = new Declarations();
+        Functions functions = new Functions();
+        boolean failed = tokens.diagnostics().hasErrors();
+        for (int i = 0; i < parts.size(); i++) {
+            Program part = parts.get(i).join();
+            globals.addAll(part.globals);
+            functions.addAll(part.functions);
+            failed |= ranges.get(i).diagnostics().hasErrors();
+        }
+        if (failed) {
+            tokens.rewind();
+            return new Parser(tokens).program();
+        }
+        Program p = new Program(globals, functions);
+        p.lines = tokens.lines();
+        return p;
+    }
+
+    // Index just past each top-level item: after a ';' or a '}' at brace
+    // depth 0.  The last entry is the index of the final Eof token, which
+    // also ends any unterminated item.
+    static List<Integer> itemEnds(TokenArray tokens) {
+        List<Integer> ends = new ArrayList<Integer>();
+        int depth = 0;
+        int n = tokens.size() - 1;
+        for (int i = 0; i < n; i++) {
+            TokenType t = tokens.get(i).type();
+            if (t == TokenType.LeftBrace)
+                depth++;
+            else if (t == TokenType.RightBrace) {
+                if (depth > 0 && --depth == 0)
+                    ends.add(i + 1);
+            } else if (t == TokenType.Semicolon && depth == 0)
+                ends.add(i + 1);
+        }
+        if (ends.isEmpty() || ends.get(ends.size() - 1) != n)
+            ends.add(n);
+        return ends;
+    }
+}
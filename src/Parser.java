@@ -1,33 +1,134 @@
 public class Parser {
 
     Token token;          // current token from the input stream
-    Lexer lexer;
+    long tokenSpan;       // and its position
+    int lastEnd;          // end offset of the last token passed over
+    TokenStream lexer;
     String funcId;
+    boolean headersOnly;  // skip function bodies, see signatures()
+    final boolean climbing; // parse expressions by precedence climbing, see climb()
+    private Origin origin;  // of the nodes made, see relativeTo()
+    private int base;       // and its start
 
-    public Parser(Lexer ts) { // Open the Clite source program
+    public Parser(TokenStream ts) { // Open the Clite source program
+        this(ts, false);
+    }
+
+    public Parser(TokenStream ts, boolean climbing) {
         lexer = ts;           // as a token stream, and
         token = lexer.next(); // retrieve its first Token
+        tokenSpan = lexer.span();
+        this.climbing = climbing;
+    }
+
+    private void advance() {
+        lastEnd = Span.end(tokenSpan);
+        token = lexer.next();
+        tokenSpan = lexer.span();
     }
 
     private String match(TokenType t) {
         String value = token.value();
-        if (token.type().equals(t))
-            token = lexer.next();
+        if (token.type() == t)
+            advance();
         else
             error(t);
         return value;
     }
 
+    private int start() { // start offset of the current token
+        return Span.start(tokenSpan);
+    }
+
+    private int start(Node n) { // start offset of a node made here
+        return Span.start(n.span) + base;
+    }
+
+    private <N extends Node> N at(int start, N n) { // n spans start .. last token
+        if (n != null) {
+            n.span = Span.of(start - base, Math.max(start, lastEnd) - base);
+            n.origin = origin;
+        }
+        return n;
+    }
+
+    private <N extends Node> N atToken(long span, N n) { // n spans one token
+        n.span = Span.shift(span, -base);
+        n.origin = origin;
+        return n;
+    }
+
+    // Makes the spans of the nodes parsed from here on relative to the
+    // start of origin, which must be where it is now
+    public void relativeTo(Origin origin) {
+        this.origin = origin;
+        base = origin.start();
+    }
+
+    // Where the parse stopped: the span of the token it reads next, or
+    // Span.NONE at end of file
+    public long stoppedAt() {
+        return token.type() == TokenType.Eof ? Span.NONE : tokenSpan;
+    }
+
+    public int lastEnd() { // end offset of the last token passed over
+        return lastEnd;
+    }
+
+    private Variable variable() {
+        int start = start();
+        return at(start, new Variable(match(TokenType.Identifier)));
+    }
+
+    private int intLiteral() {
+        int value = token.intValue();
+        match(TokenType.IntLiteral);
+        return value;
+    }
+
+    // Thrown after a syntax error is recorded, to unwind to the nearest
+    // statement, declaration or top-level item and resynchronize there.
+    private static class SyntaxError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxError() {
+            super(null, null, false, false);
+        }
+    }
+
     private void error(TokenType tok) {
-        System.err.println("Syntax error: expecting: " + tok
-                + "; saw: " + token);
-        System.exit(1);
+        error(tok.toString());
     }
 
     private void error(String tok) {
-        System.err.println("Syntax error: expecting: " + tok
-                + "; saw: " + token);
-        System.exit(1);
+        lexer.diagnostics().error(tokenSpan,
+                "Syntax error: expecting: " + tok + "; saw: " + token);
+        throw new SyntaxError();
+    }
+
+    private void synchronize() {
+        // Panic mode: skip past the next ';' or balanced { }, or up to
+        // the '}' that closes the enclosing block
+        int depth = 0;
+        while (token.type() != TokenType.Eof) {
+            if (token.type() == TokenType.LeftBrace)
+                depth++;
+            else if (token.type() == TokenType.RightBrace) {
+                if (depth == 0) return;
+                if (--depth == 0) {
+                    advance();
+                    return;
+                }
+            } else if (token.type() == TokenType.Semicolon && depth == 0) {
+                advance();
+                return;
+            }
+            advance();
+        }
+    }
+
+    public Diagnostics diagnostics() {
+        return lexer.diagnostics();
     }
 
     public Program program() {
@@ -35,43 +136,63 @@ public class Parser {
         Declarations globals = new Declarations();
         Functions functions = new Functions();
 
-        while (!(token.type().equals(TokenType.Eof))) {
+        while (token.type() != TokenType.Eof)
+            topLevel(globals, functions);
+
+        Program p = new Program(globals, functions);
+        p.lines = lexer.lines();
+        return p;
+    }
+
+    public Program signatures() {
+        // The globals and the function headers only, with empty bodies
+        headersOnly = true;
+        return program();
+    }
+
+    public void topLevel(Declarations globals, Functions functions) {
+        // FunctionOrGlobal: adds one function or one global declaration
+        int start = start();
+        try {
             Type t = type();
             String id;
-            if (token.type().equals(TokenType.Main)) {
+            if (token.type() == TokenType.Main) {
                 id = match(TokenType.Main);
-                functions.add(mainFunction(t, id));
+                functions.add(at(start, mainFunction(t, id)));
             } else {
+                long idSpan = tokenSpan;
                 id = match(TokenType.Identifier);
-                if (token.type().equals(TokenType.LeftParen)) {
-                    functions.add(function(t, id));
+                if (token.type() == TokenType.LeftParen) {
+                    functions.add(at(start, function(t, id)));
                 } else {
-                    globalDecs(globals, t, id);
+                    globalDecs(globals, t, id, idSpan);
                 }
             }
+        } catch (SyntaxError e) {
+            synchronize();
+            if (token.type() == TokenType.RightBrace)
+                advance(); // stray '}' at top level
         }
-
-        return new Program(globals, functions);
     }
 
-    public void globalDecs(Declarations ds, Type type, String id) {
+    public void globalDecs(Declarations ds, Type type, String id, long idSpan) {
         Type t = type;
-        Variable v = new Variable(id);
-        if (token.type().equals(TokenType.LeftBracket)) {
+        Variable v = atToken(idSpan, new Variable(id));
+        if (token.type() == TokenType.LeftBracket) {
             match(TokenType.LeftBracket);
-            IntValue i = new IntValue(Integer.parseInt(match(TokenType.IntLiteral)));
+            IntValue i = new IntValue(intLiteral());
             match(TokenType.RightBracket);
         } else
-            ds.add(new VariableDeclare(v, t));
-        while (token.type().equals(TokenType.Comma)) {
+            ds.add(declare(v, t));
+        while (token.type() == TokenType.Comma) {
             match(TokenType.Comma);
-            v = new Variable(match(TokenType.Identifier));
-            if (token.type().equals(TokenType.LeftBracket)) {
+            v = variable();
+            if (token.type() == TokenType.LeftBracket) {
                 match(TokenType.LeftBracket);
-                IntValue i = new IntValue(Integer.parseInt(match(TokenType.IntLiteral)));
+                IntValue i = new IntValue(intLiteral());
                 match(TokenType.RightBracket);
             } else
-                ds.add(new VariableDeclare(v, t));
+                ds.add(declare(v, t));
         }
         match(TokenType.Semicolon);
     }
@@ -82,8 +203,11 @@ public class Parser {
         Declarations params = params();
         match(TokenType.RightParen);
         match(TokenType.LeftBrace);
+        if (headersOnly)
+            return skipBody(t, id, params);
         Declarations locals = declarations();
-        Block body = statements();
+        int start = start();
+        Block body = at(start, statements());
         match(TokenType.RightBrace);
         return new Function(t, id, params, locals, body);
     }
@@ -94,12 +218,31 @@ public class Parser {
             match(header[i]);
         match(TokenType.LeftBrace);
         Declarations params = new Declarations();
+        if (headersOnly)
+            return skipBody(t, id, params);
         Declarations locals = declarations();
-        Block body = statements();
+        int start = start();
+        Block body = at(start, statements());
         match(TokenType.RightBrace);
         return new Function(t, id, params, locals, body);
     }
 
+    private Function skipBody(Type t, String id, Declarations params) {
+        // pass over the rest of a body whose '{' was matched
+        for (int depth = 1; depth > 0 && token.type() != TokenType.Eof; advance()) {
+            if (token.type() == TokenType.LeftBrace) depth++;
+            else if (token.type() == TokenType.RightBrace) depth--;
+        }
+        return new Function(t, id, params, new Declarations(), new Block());
+    }
+
+    private VariableDeclare declare(Variable v, Type t) {
+        VariableDeclare d = new VariableDeclare(v, t);
+        d.span = v.span;
+        d.origin = v.origin;
+        return d;
+    }
+
     private Declarations params() {
         // Params --> { Param }
         Declarations ds = new Declarations();
@@ -111,18 +254,18 @@ public class Parser {
 
     private void param(Declarations ds) {
         Type t = type();
-        Variable v = new Variable(match(TokenType.Identifier));
-        ds.add(new VariableDeclare(v, t));
-        while (token.type().equals(TokenType.Comma)) {
+        Variable v = variable();
+        ds.add(declare(v, t));
+        while (token.type() == TokenType.Comma) {
             match(TokenType.Comma);
             t = type();
-            v = new Variable(match(TokenType.Identifier));
-            if (token.type().equals(TokenType.LeftBracket)) {
+            v = variable();
+            if (token.type() == TokenType.LeftBracket) {
                 match(TokenType.LeftBracket);
-                IntValue i = new IntValue(Integer.parseInt(match(TokenType.IntLiteral)));
+                IntValue i = new IntValue(intLiteral());
                 match(TokenType.RightBracket);
             } else
-                ds.add(new VariableDeclare(v, t));
+                ds.add(declare(v, t));
         }
     }
 
@@ -130,7 +273,11 @@ public class Parser {
         // Declarations --> { Declaration }
         Declarations ds = new Declarations();
         while (isType()) {
-            declaration(ds);
+            try {
+                declaration(ds);
+            } catch (SyntaxError e) {
+                synchronize();
+            }
         }
         return ds;
     }
@@ -138,22 +285,22 @@ public class Parser {
     private void declaration(Declarations ds) {
         // Declaration  --> Type Identifier [ [ Integer ] ] { , Identifier [ [ Integer ] ] } ;
         Type t = type();
-        Variable v = new Variable(match(TokenType.Identifier));
-        if (token.type().equals(TokenType.LeftBracket)) {
+        Variable v = variable();
+        if (token.type() == TokenType.LeftBracket) {
             match(TokenType.LeftBracket);
-            IntValue i = new IntValue(Integer.parseInt(match(TokenType.IntLiteral)));
+            IntValue i = new IntValue(intLiteral());
             match(TokenType.RightBracket);
         } else
-            ds.add(new VariableDeclare(v, t));
-        while (token.type().equals(TokenType.Comma)) {
+            ds.add(declare(v, t));
+        while (token.type() == TokenType.Comma) {
             match(TokenType.Comma);
-            v = new Variable(match(TokenType.Identifier));
-            if (token.type().equals(TokenType.LeftBracket)) {
+            v = variable();
+            if (token.type() == TokenType.LeftBracket) {
                 match(TokenType.LeftBracket);
-                IntValue i = new IntValue(Integer.parseInt(match(TokenType.IntLiteral)));
+                IntValue i = new IntValue(intLiteral());
                 match(TokenType.RightBracket);
             } else
-                ds.add(new VariableDeclare(v, t));
+                ds.add(declare(v, t));
         }
         match(TokenType.Semicolon);
     }
@@ -161,52 +308,54 @@ public class Parser {
     private Type type() {
         // Type  -->  int | bool | float | char | void
         Type t = null;
-        if (token.type().equals(TokenType.Int))
+        if (token.type() == TokenType.Int)
             t = Type.INT;
-        else if (token.type().equals(TokenType.Bool))
+        else if (token.type() == TokenType.Bool)
             t = Type.BOOL;
-        else if (token.type().equals(TokenType.Float))
+        else if (token.type() == TokenType.Float)
             t = Type.FLOAT;
-        else if (token.type().equals(TokenType.Char))
+        else if (token.type() == TokenType.Char)
             t = Type.CHAR;
-        else if (token.type().equals(TokenType.Void))
+        else if (token.type() == TokenType.Void)
             t = Type.VOID;
         else error("int | bool | float | char | void");
-        token = lexer.next(); // pass over the type
+        advance(); // pass over the type
         return t;
     }
 
     private Statement statement() {
         // Statement --> ; | Block | Assignment | IfStatement | WhileStatement
+        int start = start();
         Statement s = new Skip();
-        if (token.type().equals(TokenType.Semicolon))    // Skip
+        if (token.type() == TokenType.Semicolon)    // Skip
             match(TokenType.Semicolon);
-        else if (token.type().equals(TokenType.LeftBrace)) { // Block
-            token = lexer.next();
+        else if (token.type() == TokenType.LeftBrace) { // Block
+            advance();
             s = statements();
             match(TokenType.RightBrace);
-        } else if (token.type().equals(TokenType.If))         // IfStatement
+        } else if (token.type() == TokenType.If)         // IfStatement
             s = ifStatement();
-        else if (token.type().equals(TokenType.While))      // WhileStatement
+        else if (token.type() == TokenType.While)      // WhileStatement
             s = whileStatement();
-        else if (token.type().equals(TokenType.Return))
+        else if (token.type() == TokenType.Return)
             s = returnStatement();
-        else if (token.type().equals(TokenType.Identifier)) {  // Assignment
+        else if (token.type() == TokenType.Identifier) {  // Assignment
+            long idSpan = tokenSpan;
             String id = match(TokenType.Identifier);
-            if (token.type().equals(TokenType.LeftParen))
+            if (token.type() == TokenType.LeftParen)
                 s = callStatement(id);
             else
-                s = assignment(id);
+                s = assignment(id, idSpan);
         } else error("Illegal statement");
-        return s;
+        return at(start, s);
     }
 
     private CallStatement callStatement(String s) {
         match(TokenType.LeftParen);
         Expressions args = new Expressions();
-        while (!(token.type().equals(TokenType.RightParen))) {
+        while (token.type() != TokenType.RightParen) {
             args.add(expression());
-            if (!token.type().equals(TokenType.RightParen))
+            if (token.type() != TokenType.RightParen)
                 match(TokenType.Comma);
         }
         match(TokenType.RightParen);
@@ -225,21 +374,27 @@ public class Parser {
     private Block statements() {
         // Block --> '{' Statements '}'
         Block b = new Block();
-        while (!token.type().equals(TokenType.RightBrace)) {
-            b.statements.add(statement());
+        while (token.type() != TokenType.RightBrace
+                && token.type() != TokenType.Eof) {
+            try {
+                b.statements.add(statement());
+            } catch (SyntaxError e) {
+                synchronize();
+            }
         }
         return b;
     }
 
-    private Assignment assignment(String s) {
+    private Assignment assignment(String s, long idSpan) {
         // Assignment --> Identifier [ [ Expression ] ] = Expression ;
         VariableRef target = null;
-        if (token.type().equals(TokenType.LeftBracket)) {
+        if (token.type() == TokenType.LeftBracket) {
             match(TokenType.LeftBracket);
             Expression index = expression();
             match(TokenType.RightBracket);
-        } else
-            target = new Variable(s);
+        } else {
+            target = atToken(idSpan, new Variable(s));
+        }
         match(TokenType.Assign);
         Expression source = expression();
         match(TokenType.Semicolon);
@@ -254,7 +409,7 @@ public class Parser {
         match(TokenType.RightParen);
         Statement thenbranch = statement();
         Statement elsebranch = new Skip();
-        if (token.type().equals(TokenType.Else)) {
+        if (token.type() == TokenType.Else) {
             match(TokenType.Else);
             elsebranch = statement();
         }
@@ -273,11 +428,13 @@ public class Parser {
 
     private Expression expression() {
         // Expression --> Conjunction { || Conjunction }
+        if (climbing)
+            return climb();
         Expression e = conjunction();
-        while (token.type().equals(TokenType.Or)) {
-            Operator op = new Operator(match(TokenType.Or));
+        while (token.type() == TokenType.Or) {
+            Operator op = binary();
             Expression term2 = conjunction();
-            e = new Binary(op, e, term2);
+            e = at(start(e), new Binary(op, e, term2));
         }
         return e;
     }
@@ -285,10 +442,10 @@ public class Parser {
     private Expression conjunction() {
         // Conjunction --> Equality { && Equality }
         Expression e = equality();
-        while (token.type().equals(TokenType.And)) {
-            Operator op = new Operator(match(TokenType.And));
+        while (token.type() == TokenType.And) {
+            Operator op = binary();
             Expression term2 = equality();
-            e = new Binary(op, e, term2);
+            e = at(start(e), new Binary(op, e, term2));
         }
         return e;
     }
@@ -296,10 +453,10 @@ public class Parser {
     private Expression equality() {
         // Equality --> Relation [ EquOp Relation ]
         Expression e = relation();
-        while (isEqualityOp()) {
-            Operator op = new Operator(match(token.type()));
+        while (PRECEDENCE[token.type().ordinal()] == 3) {
+            Operator op = binary();
             Expression term2 = relation();
-            e = new Binary(op, e, term2);
+            e = at(start(e), new Binary(op, e, term2));
         }
         return e;
     }
@@ -307,10 +464,10 @@ public class Parser {
     private Expression relation() {
         // Relation --> Addition [RelOp Addition]
         Expression e = addition();
-        while (isRelationalOp()) {
-            Operator op = new Operator(match(token.type()));
+        while (PRECEDENCE[token.type().ordinal()] == 4) {
+            Operator op = binary();
             Expression term2 = addition();
-            e = new Binary(op, e, term2);
+            e = at(start(e), new Binary(op, e, term2));
         }
         return e;
     }
@@ -318,10 +475,10 @@ public class Parser {
     private Expression addition() {
         // Addition --> Term { AddOp Term }
         Expression e = term();
-        while (isAddOp()) {
-            Operator op = new Operator(match(token.type()));
+        while (PRECEDENCE[token.type().ordinal()] == 5) {
+            Operator op = binary();
             Expression term2 = term();
-            e = new Binary(op, e, term2);
+            e = at(start(e), new Binary(op, e, term2));
         }
         return e;
     }
@@ -329,10 +486,10 @@ public class Parser {
     private Expression term() {
         // Term --> Factor { MultiplyOp Factor }
         Expression e = factor();
-        while (isMultiplyOp()) {
-            Operator op = new Operator(match(token.type()));
+        while (PRECEDENCE[token.type().ordinal()] == 6) {
+            Operator op = binary();
             Expression term2 = factor();
-            e = new Binary(op, e, term2);
+            e = at(start(e), new Binary(op, e, term2));
         }
         return e;
     }
@@ -340,126 +497,262 @@ public class Parser {
     private Expression factor() {
         // Factor --> [ UnaryOp ] Primary
         if (isUnaryOp()) {
-            Operator op = new Operator(match(token.type()));
+            int start = start();
+            Operator op = Operator.of(token.type() == TokenType.Not ? Operator.Code.NOT : Operator.Code.NEG);
+            advance();
             Expression term = primary();
-            return new Unary(op, term);
+            return at(start, new Unary(op, term));
         } else return primary();
     }
 
+    private Operator binary() { // the binary operator at token, passed over
+        Operator op = BINARY[token.type().ordinal()];
+        advance();
+        return op;
+    }
+
+    // Binary operator precedence by token type, 0 for a token that is not
+    // one, and the operator itself
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+    private static final Operator[] BINARY = new Operator[TokenType.values().length];
+
+    static {
+        binary(1, TokenType.Or, Operator.Code.OR);
+        binary(2, TokenType.And, Operator.Code.AND);
+        binary(3, TokenType.Equals, Operator.Code.EQ);
+        binary(3, TokenType.NotEqual, Operator.Code.NE);
+        binary(4, TokenType.Less, Operator.Code.LT);
+        binary(4, TokenType.LessEqual, Operator.Code.LE);
+        binary(4, TokenType.Greater, Operator.Code.GT);
+        binary(4, TokenType.GreaterEqual, Operator.Code.GE);
+        binary(5, TokenType.Plus, Operator.Code.PLUS);
+        binary(5, TokenType.Minus, Operator.Code.MINUS);
+        binary(6, TokenType.Multiply, Operator.Code.TIMES);
+        binary(6, TokenType.Divide, Operator.Code.DIV);
+        binary(6, TokenType.Modulus, Operator.Code.MOD);
+    }
+
+    private static void binary(int precedence, TokenType t, Operator.Code code) {
+        PRECEDENCE[t.ordinal()] = precedence;
+        BINARY[t.ordinal()] = Operator.of(code);
+    }
+
+    private static final int PAREN = -1, UNARY = -2, BOTTOM = -3; // pending, besides precedences
+
+    // Pending operators of the expressions being parsed, with the left
+    // operand of each binary one; nested calls use the part above their
+    // entry top
+    private int[] pending = new int[16];       // precedence, PAREN, UNARY or BOTTOM
+    private Operator[] operators = new Operator[16];
+    private Expression[] lefts = new Expression[16];
+    private int[] starts = new int[16];        // start offset of a PAREN or UNARY
+    private int pendingTop = 0;
+
+    private Expression climb() {
+        // Precedence climbing over an explicit stack, so neither long
+        // operator chains nor nested parentheses recurse.  Builds the same
+        // trees, spans and errors as the Conjunction .. Factor descent.
+        // The top is kept in top, and stored in pendingTop only before
+        // calls that may parse a nested expression.  Warm, it is a quarter
+        // to a half slower than the descent on the long chains of Benchmark
+        // expressions, which is why it is not the default.
+        int base = pendingTop, top = base;
+        try {
+            if (top == pending.length)
+                grow();
+            pending[top] = BOTTOM; // stops the reductions below
+            while (true) {
+                // Factor --> [ UnaryOp ] Primary, Primary --> ( Expression ) | ...
+                int start = start();
+                TokenType t = token.type();
+                Expression e;
+                if (t == TokenType.Not || t == TokenType.Minus) {
+                    advance();
+                    if (isUnaryOp())
+                        error("Identifier | Literal | ( | Type");
+                    Operator op = Operator.of(t == TokenType.Not ? Operator.Code.NOT : Operator.Code.NEG);
+                    if (token.type() == TokenType.LeftParen) { // reduced at its )
+                        if (++top == pending.length)
+                            grow();
+                        pending[top] = UNARY;
+                        operators[top] = op;
+                        starts[top] = start;
+                        continue;
+                    }
+                    pendingTop = top + 1;
+                    e = at(start, new Unary(op, operand()));
+                } else if (t == TokenType.LeftParen) {
+                    if (++top == pending.length)
+                        grow();
+                    pending[top] = PAREN;
+                    starts[top] = start;
+                    advance();
+                    continue;
+                } else {
+                    pendingTop = top + 1;
+                    e = operand();
+                }
+                while (true) {
+                    int[] pending = this.pending;
+                    Operator[] operators = this.operators;
+                    while (pending[top] == UNARY) {
+                        e = at(starts[top], new Unary(operators[top], e));
+                        top--;
+                    }
+                    t = token.type();
+                    int prec = PRECEDENCE[t.ordinal()];
+                    int floor = prec > 0 ? prec : 1;
+                    Expression[] lefts = this.lefts;
+                    while (pending[top] >= floor) {
+                        Expression left = lefts[top];
+                        e = at(start(left), new Binary(operators[top--], left, e));
+                    }
+                    if (prec > 0) {
+                        advance();
+                        if (++top == pending.length)
+                            grow();
+                        this.pending[top] = prec;
+                        this.operators[top] = BINARY[t.ordinal()];
+                        this.lefts[top] = e;
+                        break;
+                    }
+                    if (pending[top] == PAREN && t == TokenType.RightParen) {
+                        advance();
+                        at(starts[top--], e);
+                        continue;
+                    }
+                    if (pending[top] == PAREN)
+                        error(TokenType.RightParen);
+                    return e;
+                }
+            }
+        } finally {
+            pendingTop = base;
+        }
+    }
+
+    private Expression operand() {
+        // Primary other than ( Expression ), plain variables without a
+        // primary() call
+        if (token.type() != TokenType.Identifier)
+            return primary();
+        int start = start();
+        String id = token.value();
+        advance();
+        TokenType t = token.type();
+        return t == TokenType.LeftParen || t == TokenType.LeftBracket
+                ? primary(start, id) : at(start, new Variable(id));
+    }
+
+    private void grow() {
+        int n = pending.length * 2;
+        pending = java.util.Arrays.copyOf(pending, n);
+        operators = java.util.Arrays.copyOf(operators, n);
+        lefts = java.util.Arrays.copyOf(lefts, n);
+        starts = java.util.Arrays.copyOf(starts, n);
+    }
 
     private Expression primary() {
         // Primary --> Identifier [ [ Expression ] ] | Literal | ( Expression )
-        //             | Type ( Expression )
+        //           | Type ( Expression )
+        int start = start();
+        if (token.type() == TokenType.Identifier)
+            return primary(start, match(TokenType.Identifier));
         Expression e = null;
-        if (token.type().equals(TokenType.Identifier)) {
-            String s = match(TokenType.Identifier);
-            if (token.type().equals(TokenType.LeftBracket)) {
-                match(TokenType.LeftBracket);
-                Expression index = expression();
-                match(TokenType.RightBracket);
-            } else if (token.type().equals(TokenType.LeftParen)) {
-                match(TokenType.LeftParen);
-                Expressions args = new Expressions();
-                while (!(token.type().equals(TokenType.RightParen))) {
-                    args.add(expression());
-                    if (!token.type().equals(TokenType.RightParen))
-                        match(TokenType.Comma);
-                }
-                match(TokenType.RightParen);
-                e = new CallExpression(s, args);
-            } else {
-                e = new Variable(s);
-            }
-        } else if (isLiteral()) {
-            e = literal();
-        } else if (token.type().equals(TokenType.LeftParen)) {
-            match(TokenType.LeftParen);
+        if (token.type() == TokenType.LeftParen) {
+            advance();
             e = expression();
             match(TokenType.RightParen);
+        } else if (isLiteral()) {
+            e = literal();
         } else if (isType()) {
-            Operator op = new Operator(match(token.type()));
+            Operator op = Operator.of(match(token.type()));
             match(TokenType.LeftParen);
             Expression term = expression();
             match(TokenType.RightParen);
             e = new Unary(op, term);
         } else error("Identifier | Literal | ( | Type");
-        return e;
+        return at(start, e);
+    }
+
+    private Expression primary(int start, String s) {
+        // the rest of a Primary after its Identifier s
+        Expression e = null;
+        if (token.type() == TokenType.LeftBracket) {
+            match(TokenType.LeftBracket);
+            Expression index = expression();
+            match(TokenType.RightBracket);
+        } else if (token.type() == TokenType.LeftParen) {
+            match(TokenType.LeftParen);
+            Expressions args = new Expressions();
+            while (token.type() != TokenType.RightParen) {
+                args.add(expression());
+                if (token.type() != TokenType.RightParen)
+                    match(TokenType.Comma);
+            }
+            match(TokenType.RightParen);
+            e = new CallExpression(s, args);
+        } else {
+            e = new Variable(s);
+        }
+        return at(start, e);
     }
 
     private Value literal() {
-        String s = null;
-        switch (token.type()) {
+        Token t = token;
+        switch (t.type()) {
             case IntLiteral:
-                s = match(TokenType.IntLiteral);
-                return new IntValue(Integer.parseInt(s));
+                match(TokenType.IntLiteral);
+                return new IntValue(t.intValue());
             case CharLiteral:
-                s = match(TokenType.CharLiteral);
-                return new CharValue(s.charAt(0));
+                match(TokenType.CharLiteral);
+                return new CharValue(t.charValue());
             case True:
-                s = match(TokenType.True);
+                match(TokenType.True);
                 return new BoolValue(true);
             case False:
-                s = match(TokenType.False);
+                match(TokenType.False);
                 return new BoolValue(false);
             case FloatLiteral:
-                s = match(TokenType.FloatLiteral);
-                return new FloatValue(Float.parseFloat(s));
+                match(TokenType.FloatLiteral);
+                return new FloatValue(t.floatValue());
         }
         throw new IllegalArgumentException("should not reach here");
     }
 
 
-    private boolean isAddOp() {
-        return token.type().equals(TokenType.Plus) ||
-                token.type().equals(TokenType.Minus);
-    }
-
-    private boolean isMultiplyOp() {
-        return token.type().equals(TokenType.Multiply) ||
-                token.type().equals(TokenType.Divide) ||
-                token.type().equals(TokenType.Modulus);
-    }
-
     private boolean isUnaryOp() {
-        return token.type().equals(TokenType.Not) ||
-                token.type().equals(TokenType.Minus);
-    }
-
-    private boolean isEqualityOp() {
-        return token.type().equals(TokenType.Equals) ||
-                token.type().equals(TokenType.NotEqual);
-    }
-
-    private boolean isRelationalOp() {
-        return token.type().equals(TokenType.Less) ||
-                token.type().equals(TokenType.LessEqual) ||
-                token.type().equals(TokenType.Greater) ||
-                token.type().equals(TokenType.GreaterEqual);
+        return token.type() == TokenType.Not ||
+                token.type() == TokenType.Minus;
     }
 
     private boolean isType() {
-        return token.type().equals(TokenType.Int)
-                || token.type().equals(TokenType.Bool)
-                || token.type().equals(TokenType.Float)
-                || token.type().equals(TokenType.Char)
-                || token.type().equals(TokenType.Void);
+        return token.type() == TokenType.Int
+                || token.type() == TokenType.Bool
+                || token.type() == TokenType.Float
+                || token.type() == TokenType.Char
+                || token.type() == TokenType.Void;
     }
 
     private boolean isLiteral() {
-        return token.type().equals(TokenType.IntLiteral) ||
+        return token.type() == TokenType.IntLiteral ||
                 isBooleanLiteral() ||
-                token.type().equals(TokenType.FloatLiteral) ||
-                token.type().equals(TokenType.CharLiteral);
+                token.type() == TokenType.FloatLiteral ||
+                token.type() == TokenType.CharLiteral;
     }
 
     private boolean isBooleanLiteral() {
-        return token.type().equals(TokenType.True) ||
-                token.type().equals(TokenType.False);
+        return token.type() == TokenType.True ||
+                token.type() == TokenType.False;
     }
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws java.io.IOException {
         Parser parser = new Parser(new Lexer(args[0]));
         Program prog = parser.program();
+        if (parser.diagnostics().hasErrors()) {
+            parser.diagnostics().print(System.err, prog.lines);
+            System.exit(1);
+        }
         prog.display(0);      // display abstract syntax tree
     } //main
 
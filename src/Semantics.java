@@ -6,31 +6,69 @@ import java.util.*;
 
 public class Semantics {
 
+    private final Map<String, Function> functions = new HashMap<String, Function>();
+
+    // Runs main; the result is main's frame, chained to the globals as
+    // the program left them.  Gives the program's variables their slots
+    // unless the compiler already has (see Slots).
     State M(Program p) {
-        return initialState(p.globals);
+        for (Function f : p.functions)
+            functions.putIfAbsent(f.id, f);
+        Function main = functions.get("main");
+        if (main == null)
+            throw new IllegalArgumentException("no main function");
+        if (!Slots.resolved(main))
+            Slots.resolve(p);
+        State frame = frame(main, new Expressions(), initialState(p.globals), null);
+        M(main.body, frame);
+        return frame;
+    }
+
+    // A new frame for f, chained to the globals: f's parameters bound to
+    // args, evaluated in the caller's state, and f's locals undefined.
+    State frame(Function f, Expressions args, State globals, State caller) {
+        State frame = new State(f, globals);
+        int slot = 0;
+        for (int i = 0; i < f.params.size(); i++)
+            frame.set(slot++, M(args.get(i), caller));
+        for (Declaration decl : f.locals)
+            frame.set(slot++, Value.mkValue(decl.type));
+        return frame;
+    }
+
+    // Calls the function named id with args; the value it returned, or
+    // null for a void function
+    Value call(String id, Expressions args, State state) {
+        Function f = functions.get(id);
+        if (f == null)
+            throw new IllegalArgumentException("undefined function: " + id);
+        State frame = frame(f, args, globals(state), state);
+        M(f.body, frame);
+        return frame.returned;
+    }
+
+    private static State globals(State state) {
+        return state.parent() == null ? state : state.parent();
     }
 
     State initialState(Declarations d) {
         // Declaration = VariableRef v, Type t
-        State state = new State();
-        for (Declaration decl : d)
-            if (decl instanceof VariableDeclare) {
-                VariableDeclare vd = (VariableDeclare) decl;
-                ArrayList<Value> val = new ArrayList<Value>();
-                val.add(Value.mkValue(vd.type));
-                state.put(vd.variable, val);
-            }
-
+        State state = new State(d);
+        for (int slot = 0; slot < d.size(); slot++)
+            state.set(slot, Value.mkValue(d.get(slot).type));
         return state;
     }
 
     State M(Statement s, State state) {
         //Statement = Skip | Assignment | Conditional | Loop | Block
+        //          | Return | CallStatement
         if (s instanceof Skip) return M((Skip) s, state);
         if (s instanceof Assignment) return M((Assignment) s, state);
         if (s instanceof Conditional) return M((Conditional) s, state);
         if (s instanceof Loop) return M((Loop) s, state);
         if (s instanceof Block) return M((Block) s, state);
+        if (s instanceof Return) return M((Return) s, state);
+        if (s instanceof CallStatement) return M((CallStatement) s, state);
         throw new IllegalArgumentException("should never reach here");
     }
 
@@ -46,8 +84,23 @@ public class Semantics {
 
     State M(Block b, State state) {
         //Block = Statement*
-        for (Statement s : b.statements)
+        for (Statement s : b.statements) {
             state = M(s, state);
+            if (state.returned != null)
+                break;
+        }
+        return state;
+    }
+
+    State M(Return r, State state) {
+        //Return = Variable target; Expression retVal
+        state.returned = M(r.retVal, state);
+        return state;
+    }
+
+    State M(CallStatement c, State state) {
+        //CallStatement = String id; Expressions args
+        call(c.id, c.args, state);
         return state;
     }
 
@@ -61,19 +114,33 @@ public class Semantics {
 
     State M(Loop l, State state) {
         //Loop = Expression test; Statement body
-        if (M(l.test, state).boolValue())
-            return M(l, M(l.body, state));
-        else return state;
+        // iterates rather than recursing, in constant stack space
+        while (state.returned == null && M(l.test, state).boolValue())
+            state = M(l.body, state);
+        return state;
     }
 
     Value M(Expression e, State state) {
-        //Expression = Value | VariableRef | Binary | Unary
+        //Expression = Value | VariableRef | Binary | Unary | CallExpression
         //VariableRef = Variable | ArrayRef
 
         //Value = return object
         if (e instanceof Value)
             return (Value) e;
 
+        //Variable = String id
+        if (e instanceof Variable)
+            return state.get((Variable) e);
+
+        //CallExpression = String id; Expressions args
+        if (e instanceof CallExpression) {
+            CallExpression c = (CallExpression) e;
+            Value v = call(c.id, c.args, state);
+            if (v == null)
+                throw new IllegalArgumentException(c.id + " returned no value");
+            return v;
+        }
+
 
         //Binary = Operator op; Expression term1, term2
         if (e instanceof Binary) {
@@ -90,50 +157,52 @@ public class Semantics {
     }
 
     Value applyBinary(Operator op, Value v1, Value v2) {
-        StaticTypeCheck.check(!v1.isUndef() && !v2.isUndef(), "reference to undef value");
+        if (v1.isUndef() || v2.isUndef())
+            throw new IllegalArgumentException("reference to undef value");
 
-        Value v = switch (op.val) {
+        Value v = switch (op.code) {
             // Integer
-            case Operator.INT_PLUS -> new IntValue(v1.intValue() + v2.intValue());
-            case Operator.INT_MINUS -> new IntValue(v1.intValue() - v2.intValue());
-            case Operator.INT_TIMES -> new IntValue(v1.intValue() * v2.intValue());
-            case Operator.INT_DIV -> new IntValue(v1.intValue() / v2.intValue());
-            case Operator.INT_EQ -> new BoolValue(v1.intValue() == v2.intValue());
-            case Operator.INT_NE -> new BoolValue(v1.intValue() != v2.intValue());
-            case Operator.INT_LT -> new BoolValue(v1.intValue() < v2.intValue());
-            case Operator.INT_LE -> new BoolValue(v1.intValue() <= v2.intValue());
-            case Operator.INT_GT -> new BoolValue(v1.intValue() > v2.intValue());
-            case Operator.INT_GE -> new BoolValue(v1.intValue() >= v2.intValue());
+            case INT_PLUS -> new IntValue(v1.intValue() + v2.intValue());
+            case INT_MINUS -> new IntValue(v1.intValue() - v2.intValue());
+            case INT_TIMES -> new IntValue(v1.intValue() * v2.intValue());
+            case INT_DIV -> new IntValue(v1.intValue() / v2.intValue());
+            case INT_MOD -> new IntValue(v1.intValue() % v2.intValue());
+            case INT_EQ -> new BoolValue(v1.intValue() == v2.intValue());
+            case INT_NE -> new BoolValue(v1.intValue() != v2.intValue());
+            case INT_LT -> new BoolValue(v1.intValue() < v2.intValue());
+            case INT_LE -> new BoolValue(v1.intValue() <= v2.intValue());
+            case INT_GT -> new BoolValue(v1.intValue() > v2.intValue());
+            case INT_GE -> new BoolValue(v1.intValue() >= v2.intValue());
 
             // Float
-            case Operator.FLOAT_PLUS -> new FloatValue(v1.floatValue() + v2.floatValue());
-            case Operator.FLOAT_MINUS -> new FloatValue(v1.floatValue() - v2.floatValue());
-            case Operator.FLOAT_TIMES -> new FloatValue(v1.floatValue() * v2.floatValue());
-            case Operator.FLOAT_DIV -> new FloatValue(v1.floatValue() / v2.floatValue());
-            case Operator.FLOAT_EQ -> new BoolValue(v1.floatValue() == v2.floatValue());
-            case Operator.FLOAT_NE -> new BoolValue(v1.floatValue() != v2.floatValue());
-            case Operator.FLOAT_LT -> new BoolValue(v1.floatValue() < v2.floatValue());
-            case Operator.FLOAT_LE -> new BoolValue(v1.floatValue() <= v2.floatValue());
-            case Operator.FLOAT_GT -> new BoolValue(v1.floatValue() > v2.floatValue());
-            case Operator.FLOAT_GE -> new BoolValue(v1.floatValue() >= v2.floatValue());
+            case FLOAT_PLUS -> new FloatValue(v1.floatValue() + v2.floatValue());
+            case FLOAT_MINUS -> new FloatValue(v1.floatValue() - v2.floatValue());
+            case FLOAT_TIMES -> new FloatValue(v1.floatValue() * v2.floatValue());
+            case FLOAT_DIV -> new FloatValue(v1.floatValue() / v2.floatValue());
+            case FLOAT_EQ -> new BoolValue(v1.floatValue() == v2.floatValue());
+            case FLOAT_NE -> new BoolValue(v1.floatValue() != v2.floatValue());
+            case FLOAT_LT -> new BoolValue(v1.floatValue() < v2.floatValue());
+            case FLOAT_LE -> new BoolValue(v1.floatValue() <= v2.floatValue());
+            case FLOAT_GT -> new BoolValue(v1.floatValue() > v2.floatValue());
+            case FLOAT_GE -> new BoolValue(v1.floatValue() >= v2.floatValue());
 
             // Character
-            case Operator.CHAR_EQ -> new BoolValue(v1.charValue() == v2.charValue());
-            case Operator.CHAR_NE -> new BoolValue(v1.charValue() != v2.charValue());
-            case Operator.CHAR_LT -> new BoolValue(v1.charValue() < v2.charValue());
-            case Operator.CHAR_LE -> new BoolValue(v1.charValue() <= v2.charValue());
-            case Operator.CHAR_GT -> new BoolValue(v1.charValue() > v2.charValue());
-            case Operator.CHAR_GE -> new BoolValue(v1.charValue() >= v2.charValue());
+            case CHAR_EQ -> new BoolValue(v1.charValue() == v2.charValue());
+            case CHAR_NE -> new BoolValue(v1.charValue() != v2.charValue());
+            case CHAR_LT -> new BoolValue(v1.charValue() < v2.charValue());
+            case CHAR_LE -> new BoolValue(v1.charValue() <= v2.charValue());
+            case CHAR_GT -> new BoolValue(v1.charValue() > v2.charValue());
+            case CHAR_GE -> new BoolValue(v1.charValue() >= v2.charValue());
 
             // Boolean
-            case Operator.BOOL_EQ -> new BoolValue(v1.boolValue() == v2.boolValue());
-            case Operator.BOOL_NE -> new BoolValue(v1.boolValue() != v2.boolValue());
-            case Operator.BOOL_LT -> new BoolValue(!v1.boolValue() && v2.boolValue());
-            case Operator.BOOL_LE -> new BoolValue(!v1.boolValue() || v2.boolValue());
-            case Operator.BOOL_GT -> new BoolValue(v1.boolValue() && !v2.boolValue());
-            case Operator.BOOL_GE -> new BoolValue(v1.boolValue() || !v2.boolValue());
-            case Operator.AND -> new BoolValue(v1.boolValue() && v2.boolValue());
-            case Operator.OR -> new BoolValue(v1.boolValue() || v2.boolValue());
+            case BOOL_EQ -> new BoolValue(v1.boolValue() == v2.boolValue());
+            case BOOL_NE -> new BoolValue(v1.boolValue() != v2.boolValue());
+            case BOOL_LT -> new BoolValue(!v1.boolValue() && v2.boolValue());
+            case BOOL_LE -> new BoolValue(!v1.boolValue() || v2.boolValue());
+            case BOOL_GT -> new BoolValue(v1.boolValue() && !v2.boolValue());
+            case BOOL_GE -> new BoolValue(v1.boolValue() || !v2.boolValue());
+            case AND -> new BoolValue(v1.boolValue() && v2.boolValue());
+            case OR -> new BoolValue(v1.boolValue() || v2.boolValue());
 
             // Should never reach default
             default -> null;
@@ -145,15 +214,16 @@ public class Semantics {
     }
 
     Value applyUnary(Operator op, Value v) {
-        StaticTypeCheck.check(!v.isUndef(), "reference to undef value");
-        Value value = switch (op.val) {
-            case Operator.NOT -> new BoolValue(!v.boolValue());
-            case Operator.INT_NEG -> new IntValue(-v.intValue());
-            case Operator.FLOAT_NEG -> new FloatValue(-v.floatValue());
-            case Operator.I2F -> new FloatValue((float) v.intValue());
-            case Operator.F2I -> new IntValue((int) v.floatValue());
-            case Operator.C2I -> new IntValue((int) v.charValue());
-            case Operator.I2C -> new CharValue((char) v.intValue());
+        if (v.isUndef())
+            throw new IllegalArgumentException("reference to undef value");
+        Value value = switch (op.code) {
+            case NOT -> new BoolValue(!v.boolValue());
+            case INT_NEG -> new IntValue(-v.intValue());
+            case FLOAT_NEG -> new FloatValue(-v.floatValue());
+            case I2F -> new FloatValue((float) v.intValue());
+            case F2I -> new IntValue((int) v.floatValue());
+            case C2I -> new IntValue((int) v.charValue());
+            case I2C -> new CharValue((char) v.intValue());
             default -> null;
         };
 
@@ -162,16 +232,38 @@ public class Semantics {
         throw new IllegalArgumentException("should never reach here");
     }
 
-    public static void main(String args[]) {
-        Parser parser = new Parser(new Lexer(args[0]));
+    // Usage: java Semantics [-v] <source file>
+    // Runs the program as AstCache.load gives it, from the cache file when
+    // the source has not changed.  -v compiles it afresh instead, showing
+    // the tree, type map and output tree along the way.
+    public static void main(String args[]) throws java.io.IOException {
+        if (!args[0].equals("-v")) {
+            Program program = AstCache.load(args[0]);
+            if (program == null)
+                System.exit(1);
+            State state = new Semantics().M(program);
+            System.out.println("Final State");
+            state.display();
+            return;
+        }
+        StaticTypeCheck checker = new StaticTypeCheck();
+        Parser parser = new Parser(new Lexer(args[1]));
         Program program = parser.program();
         program.display(0);
         System.out.println("\nBegin type checking");
         System.out.println("Type map : ");
+        checker.resolve(program);
         TypeMap map = StaticTypeCheck.typing(program.globals);
         map.display();
-        StaticTypeCheck.V(program, map);
-        Program out = TypeTransformer.T(program, map);
+        checker.V(program, map);
+        Diagnostics errors = parser.diagnostics();
+        errors.addAll(checker.diagnostics());
+        if (errors.hasErrors()) {
+            errors.print(System.err, program.lines);
+            System.exit(1);
+        }
+        checker.display(program, map);
+        Program out = new TypeTransformer(checker).T(program, map);
         System.out.println("Output AST");
         out.display(0);
         Semantics semantics = new Semantics();
@@ -0,0 +1,93 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Gives every variable of a checked program a fixed slot: the globals
+// are numbered in declaration order, and so are each function's
+// parameters then locals.  Each Variable in a body gets the slot of the
+// declaration it names, marked global if no parameter or local of its
+// function has that name, so the interpreter reads and writes a frame's
+// array (State) without looking names up.  Run it on the output of
+// TypeTransformer, whose Variables belong to one function each.
+
+public class Slots {
+
+    private final Map<String, Integer> globals = new HashMap<String, Integer>();
+    private final Map<String, Integer> locals = new HashMap<String, Integer>();
+
+    private Slots(Declarations globals) {
+        number(globals, this.globals, 0, true);
+    }
+
+    public static Program resolve(Program p) {
+        Slots slots = new Slots(p.globals);
+        for (Function f : p.functions)
+            slots.resolve(f);
+        return p;
+    }
+
+    // True if resolve has numbered f's frame
+    static boolean resolved(Function f) {
+        return f.frameSize >= 0;
+    }
+
+    private void resolve(Function f) {
+        locals.clear();
+        int n = number(f.params, locals, 0, false);
+        f.frameSize = number(f.locals, locals, n, false);
+        resolve(f.body);
+    }
+
+    private static int number(Declarations d, Map<String, Integer> scope, int slot, boolean global) {
+        for (Declaration decl : d) {
+            decl.variable.slot = slot;
+            decl.variable.global = global;
+            scope.putIfAbsent(decl.variable.id, slot++);
+        }
+        return slot;
+    }
+
+    private void resolve(Statement s) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            resolve(a.target);
+            resolve(a.source);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            resolve(c.test);
+            resolve(c.thenBranch);
+            resolve(c.elseBranch);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            resolve(l.test);
+            resolve(l.body);
+        } else if (s instanceof Block) {
+            for (Statement stmt : ((Block) s).statements)
+                resolve(stmt);
+        } else if (s instanceof Return) {
+            resolve(((Return) s).retVal);
+        } else if (s instanceof CallStatement) {
+            for (Expression arg : ((CallStatement) s).args)
+                resolve(arg);
+        }
+    }
+
+    private void resolve(Expression e) {
+        if (e instanceof VariableRef) {
+            VariableRef v = (VariableRef) e;
+            Integer slot = locals.get(v.id);
+            v.global = slot == null;
+            if (slot == null)
+                slot = globals.get(v.id);
+            v.slot = slot == null ? -1 : slot;
+        } else if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            resolve(b.term1);
+            resolve(b.term2);
+        } else if (e instanceof Unary) {
+            resolve(((Unary) e).term);
+        } else if (e instanceof CallExpression) {
+            for (Expression arg : ((CallExpression) e).args)
+                resolve(arg);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+// A source range [start, end) packed into one long: start offset in the
+// high 32 bits, end offset in the low 32 bits.  Tokens and AST nodes
+// carry spans; a LineTable turns them into line and column numbers.
+
+public final class Span {
+
+    public static final long NONE = -1L;
+
+    private Span() {
+    }
+
+    public static long of(int start, int end) {
+        return ((long) start << 32) | (end & 0xffffffffL);
+    }
+
+    public static int start(long span) {
+        return (int) (span >>> 32);
+    }
+
+    public static int end(long span) {
+        return (int) span;
+    }
+
+    public static long cover(long first, long last) { // from first's start to last's end
+        if (first == NONE) return last;
+        if (last == NONE) return first;
+        return of(start(first), end(last));
+    }
+
+    public static long shift(long span, int delta) {
+        if (span == NONE) return NONE;
+        return of(start(span) + delta, end(span) + delta);
+    }
+}
@@ -1,36 +1,86 @@
-import java.util.*;
+// The values of one call frame, in the slots Slots gave its variables: a
+// function's parameters then its locals, or the globals.  A function's
+// frame chains to the globals' frame, so a call never copies the global
+// state; a Variable marked global is read from there.  display and
+// value view the slots by the names they were declared with.
 
-public class State extends HashMap<VariableRef, ArrayList<Value>> {
+public class State {
+    private final State parent;
+    private final Declarations first, rest;    // the names of the slots, in order
+    private final Value[] values;
+    Value returned;     // set by a Return; the rest of the call is skipped
 
-    public State() {
+    // The globals' frame
+    public State(Declarations globals) {
+        this(null, globals, new Declarations());
     }
 
-    public State update(VariableRef key, Value val) {
-        if (key instanceof Variable) {
-            ArrayList<Value> value = get(key);
-            value.set(0, val);
-        } else
+    // A frame for f, chained to the globals; its slots start out empty
+    public State(Function f, State globals) {
+        this(globals, f.params, f.locals);
+    }
+
+    private State(State parent, Declarations first, Declarations rest) {
+        this.parent = parent;
+        this.first = first;
+        this.rest = rest;
+        values = new Value[first.size() + rest.size()];
+    }
+
+    public State parent() {
+        return parent;
+    }
+
+    public Value get(VariableRef v) {
+        return frame(v).values[v.slot];
+    }
+
+    public State update(VariableRef v, Value val) {
+        if (v instanceof Variable)
+            frame(v).values[v.slot] = val;
+        else
             throw new IllegalArgumentException("not a variable reference");
         return this;
     }
 
-    public State update(State t) {
-        for (VariableRef key : t.keySet())
-            put(key, t.get(key));
-        return this;
+    // Sets slot i of this frame, as declared at position i
+    void set(int slot, Value val) {
+        values[slot] = val;
+    }
+
+    private State frame(VariableRef v) {
+        if (v.slot < 0)
+            throw new IllegalArgumentException("unresolved variable: " + v);
+        return v.global && parent != null ? parent : this;
+    }
+
+    // The value of the variable declared as id in this frame, or else in
+    // the globals; null if there is none
+    public Value value(String id) {
+        for (int i = 0; i < values.length; i++)
+            if (name(i).id.equals(id))
+                return values[i];
+        return parent == null ? null : parent.value(id);
+    }
+
+    private Variable name(int slot) {
+        return slot < first.size() ? first.get(slot).variable : rest.get(slot - first.size()).variable;
     }
 
     public void display() {
         System.out.print("{ ");
-        String sep = "";
-        for (VariableRef key : keySet()) {
-            if (key instanceof Variable)
-                System.out.print(sep + "<" + key + ", " + get(key).get(0) + ">");
-            else
-                System.out.print(sep + "<" + key + ", " + get(key) + ">");
+        display("");
+        System.out.println(" }");
+    }
+
+    // The parent's variables, then this frame's
+    private String display(String sep) {
+        if (parent != null)
+            sep = parent.display(sep);
+        for (int i = 0; i < values.length; i++) {
+            System.out.print(sep + "<" + name(i) + ", " + values[i] + ">");
             sep = ", ";
         }
-        System.out.println(" }");
+        return sep;
     }
 }
-
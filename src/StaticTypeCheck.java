@@ -1,14 +1,146 @@
 // StaticTypeCheck.java
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 // Static type checking for Clite is defined by the functions
 // V and the auxiliary functions typing and typeOf.  These
 // functions use the classes in the Abstract Syntax of Clite.
 
 public class StaticTypeCheck {
-    private static Type returnType;
-    private static boolean returnFound = false;
-    private static TypeMap functionMap = new TypeMap();
-    private static Functions dtFunction = new Functions();
+    private Type returnType;
+    private boolean returnFound = false;
+    private TypeMap functionMap = new TypeMap();
+    private Map<String, Function> functions = new HashMap<String, Function>();
+    private Function[] bySymbol = new Function[0];     // functions by name symbol
+    private Type[] typeBySymbol = new Type[0];         // and their declared types
+    private Symbols symbols = new Symbols();
+    private Diagnostics diagnostics = new Diagnostics();
+
+    // All state is per instance, so separate instances may check separate
+    // programs concurrently; one instance checks one program at a time.
+
+    public StaticTypeCheck() {
+    }
+
+    // A checker for some of the functions of the program being checked
+    // by signatures: it shares that checker's (read-only) function
+    // signatures and has diagnostics of its own.
+    StaticTypeCheck(StaticTypeCheck signatures) {
+        functionMap = signatures.functionMap;
+        functions = signatures.functions;
+        bySymbol = signatures.bySymbol;
+        typeBySymbol = signatures.typeBySymbol;
+        symbols = signatures.symbols;
+    }
+
+    public void reset() { // forget the previous program
+        returnType = null;
+        returnFound = false;
+        functionMap = new TypeMap();
+        functions = new HashMap<String, Function>();
+        bySymbol = new Function[0];
+        typeBySymbol = new Type[0];
+        symbols = new Symbols();
+        diagnostics = new Diagnostics();
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+    public Symbols symbols() {
+        return symbols;
+    }
+
+    // Gives every name in p the id of its identifier in symbols(): the
+    // globals first, then the function names, then each function's
+    // parameters, locals and body.  Run it on each program before typing
+    // and checking it; ids left from another checker are overwritten.
+    public void resolve(Program p) {
+        for (Declaration d : p.globals)
+            d.variable.symbol = symbols.intern(d.variable.id);
+        for (Function f : p.functions)
+            f.symbol = symbols.intern(f.id);
+        for (Function f : p.functions)
+            resolve(f);
+    }
+
+    public void resolve(Function f) {
+        f.symbol = symbols.intern(f.id);
+        for (Declaration d : f.params)
+            d.variable.symbol = symbols.intern(d.variable.id);
+        for (Declaration d : f.locals)
+            d.variable.symbol = symbols.intern(d.variable.id);
+        resolve(f.body);
+    }
+
+    private void resolve(Statement s) {
+        if (s instanceof Assignment) {
+            Assignment a = (Assignment) s;
+            a.target.symbol = symbols.intern(a.target.id);
+            resolve(a.source);
+        } else if (s instanceof Conditional) {
+            Conditional c = (Conditional) s;
+            resolve(c.test);
+            resolve(c.thenBranch);
+            resolve(c.elseBranch);
+        } else if (s instanceof Loop) {
+            Loop l = (Loop) s;
+            resolve(l.test);
+            resolve(l.body);
+        } else if (s instanceof Block) {
+            for (Statement stmt : ((Block) s).statements)
+                resolve(stmt);
+        } else if (s instanceof Return) {
+            Return r = (Return) s;
+            r.target.symbol = symbols.intern(r.target.id);
+            resolve(r.retVal);
+        } else if (s instanceof CallStatement) {
+            CallStatement c = (CallStatement) s;
+            c.symbol = symbols.intern(c.id);
+            for (Expression arg : c.args)
+                resolve(arg);
+        }
+    }
+
+    private void resolve(Expression e) {
+        if (e instanceof VariableRef) {
+            VariableRef v = (VariableRef) e;
+            v.symbol = symbols.intern(v.id);
+        } else if (e instanceof Binary) {
+            Binary b = (Binary) e;
+            resolve(b.term1);
+            resolve(b.term2);
+        } else if (e instanceof Unary) {
+            resolve(((Unary) e).term);
+        } else if (e instanceof CallExpression) {
+            CallExpression c = (CallExpression) e;
+            c.symbol = symbols.intern(c.id);
+            for (Expression arg : c.args)
+                resolve(arg);
+        }
+    }
+
+    // The function called id (the first, if declared twice), by its
+    // symbol when the call site is resolved; null if there is none.
+    Function function(String id, int symbol) {
+        if (symbol >= 0 && symbol < bySymbol.length && bySymbol[symbol] != null)
+            return bySymbol[symbol];
+        return functions.get(id);
+    }
+
+    // The declared type of the function called id, or null
+    Type functionType(String id, int symbol) {
+        if (symbol >= 0 && symbol < typeBySymbol.length && typeBySymbol[symbol] != null)
+            return typeBySymbol[symbol];
+        return functionMap.get(id, symbol);
+    }
 
     public static TypeMap typing(Declarations d) {
         TypeMap map = new TypeMap();
@@ -21,23 +153,26 @@ public class StaticTypeCheck {
         return map;
     }
 
-    public static void check(boolean test, String msg) {
-        if (test) return;
-        System.err.println(msg);
-        System.exit(1);
+    public boolean check(boolean test, String msg) {
+        if (!test)
+            diagnostics.error(msg);
+        return test;
     }
 
-    public static void V(Declarations d) {
-        for (int i = 0; i < d.size() - 1; i++)
-            for (int j = i + 1; j < d.size(); j++) {
-                Declaration di = d.get(i);
-                Declaration dj = d.get(j);
-                check(!(di.variable.equals(dj.variable)),
-                        "duplicate declaration: " + dj.variable);
-            }
+    public boolean check(boolean test, String msg, Node at) {
+        if (!test)
+            diagnostics.error(at.span(), msg);
+        return test;
+    }
+
+    public void V(Declarations d) {
+        TypeMap scope = new TypeMap();
+        for (Declaration di : d)
+            check(scope.declare(di.variable, di.type),
+                    "duplicate declaration: " + di.variable, di);
     }
 
-    public static void V(Function f) {
+    public void V(Function f) {
 
         Declarations ds = new Declarations();
         ds.addAll(f.params);
@@ -45,39 +180,123 @@ public class StaticTypeCheck {
         V(ds);
     }
 
-    public static void V(Program p, TypeMap GM) {
-        System.out.println("Globals = {");
-        GM.display(null, functionMap);
-        dtFunction.addAll(p.functions);
+    public void V(Program p, TypeMap GM) {
+        signatures(p);
+        for (Function func : p.functions) {
+            V(func);
+        }
+        V(p.functions, GM);
+    }
+
+    // V(p, GM), checking the function bodies in parallel on pool (or
+    // sequentially if pool is null).
+    public void V(Program p, TypeMap GM, ForkJoinPool pool) {
+        V(p, GM, p.functions, pool);
+    }
+
+    // V(p, GM, pool) checking the bodies of only some of p's functions
+    // (see CallGraph); the others get their signatures and declarations
+    // checked, which every call into them relies on.
+    public void V(Program p, TypeMap GM, Functions bodies, ForkJoinPool pool) {
+        signatures(p);
+        for (Function func : p.functions) {
+            V(func);
+        }
+        if (pool == null)
+            V(bodies, GM);
+        else
+            V(bodies, GM, pool);
+    }
+
+    public void signatures(Program p) {
+        // the globals and the functions' names, types and parameters,
+        // which every function body may refer to
+        for (Function f : p.functions) {
+            functions.putIfAbsent(f.id, f);
+            if (f.symbol >= bySymbol.length) {
+                bySymbol = Arrays.copyOf(bySymbol, Math.max(f.symbol + 1, 2 * bySymbol.length));
+                typeBySymbol = Arrays.copyOf(typeBySymbol, bySymbol.length);
+            }
+            if (f.symbol >= 0 && bySymbol[f.symbol] == null)
+                bySymbol[f.symbol] = f;
+            if (f.symbol >= 0)
+                typeBySymbol[f.symbol] = f.type;    // the last, as functionMap
+        }
         Declarations ds = new Declarations();
         ds.addAll(p.globals);
         for (int i = 0; i < p.functions.size(); i++) {
             Variable fl = new Variable(p.functions.get(i).id);
+            fl.symbol = p.functions.get(i).symbol;
             ds.add(new VariableDeclare(fl, p.functions.get(i).type));
             functionMap.put(fl, p.functions.get(i).type);
         }
         V(ds);
-        for (Function func : p.functions) {
-            V(func);
+    }
+
+    public void V(Functions f, TypeMap tm) {
+        for (Function func : f)
+            V(func, typing(func, tm));
+    }
+
+    // V(f, tm) with runs of functions checked by separate checkers on
+    // pool.  Their diagnostics are appended in source order, and a batch
+    // that fails stops the merge where the sequential loop would have
+    // stopped, so the result is the same as V(f, tm)'s.
+    public void V(Functions f, TypeMap tm, ForkJoinPool pool) {
+        List<StaticTypeCheck> workers = new ArrayList<StaticTypeCheck>();
+        List<ForkJoinTask<IllegalArgumentException>> parts = new ArrayList<ForkJoinTask<IllegalArgumentException>>();
+        int batch = batchSize(f.size(), pool);
+        for (int from = 0; from < f.size(); from += batch) {
+            List<Function> slice = f.subList(from, Math.min(f.size(), from + batch));
+            StaticTypeCheck worker = new StaticTypeCheck(this);
+            workers.add(worker);
+            parts.add(pool.submit(() -> {
+                try {
+                    for (Function func : slice)
+                        worker.V(func, typing(func, tm));
+                    return null;
+                } catch (IllegalArgumentException e) {
+                    return e;
+                }
+            }));
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            IllegalArgumentException failure = parts.get(i).join();
+            diagnostics.addAll(workers.get(i).diagnostics);
+            if (failure != null)
+                throw failure;
         }
-        V(p.functions, GM);
     }
 
-    public static void V(Functions f, TypeMap tm) {
-        for (Function func : f) {
+    // Functions per task: a few tasks per thread, to even out their sizes
+    static int batchSize(int functions, ForkJoinPool pool) {
+        return Math.max(1, functions / (4 * pool.getParallelism()));
+    }
+
+    public static TypeMap typing(Function func, TypeMap tm) {
+        // the variables visible in func, in a scope chained to the globals tm
+        TypeMap fMap = new TypeMap(tm);
+        fMap.putAll(typing(func.params));
+        fMap.putAll(typing(func.locals));
+        return fMap;
+    }
+
+    public void display(Program p, TypeMap GM) {
+        // the global and per-function type maps checked by V(p, GM)
+        System.out.println("Globals = {");
+        GM.display(null, functionMap);
+        for (Function func : p.functions) {
             TypeMap fMap = new TypeMap();
-            fMap.putAll(tm);
+            fMap.putAll(GM);
             fMap.putAll(typing(func.params));
             fMap.putAll(typing(func.locals));
-
-            V(func, fMap);
             fMap.putAll(functionMap);
             System.out.println("Function " + func.id + " = {");
-            fMap.display(f, functionMap);
+            fMap.display(p.functions, functionMap);
         }
     }
 
-    public static void V(Function f, TypeMap tm) {
+    public void V(Function f, TypeMap tm) {
         returnType = f.type;
         returnFound = false;
         V(f.body, tm);
@@ -85,47 +304,46 @@ public class StaticTypeCheck {
 
         if (!(returnType.equals(Type.VOID)) && !f.id.equals("main")) {
             check((returnFound == true),
-                    f.id + " is a non-Void function with no Return Statement");
+                    f.id + " is a non-Void function with no Return Statement", f);
         }
     }
 
-    public static void V(Statement s, TypeMap tm) {
+    public void V(Statement s, TypeMap tm) {
         if (s == null)
             throw new IllegalArgumentException("error: null statement");
         if (s instanceof Skip) return;
         if (s instanceof Assignment) {
             Assignment a = (Assignment) s;
             V(a.target, tm);
-            V(a.source, tm);
+            Type srctype = V(a.source, tm);
             Type ttype = (Type) tm.get(a.target);
-            Type srctype = typeOf(a.source, tm, functionMap);
-            if (ttype != srctype) {
+            if (ttype != null && srctype != null && ttype != srctype) {
                 if (ttype == Type.FLOAT)
                     check(srctype == Type.INT
-                            , "mixed mode assignment to " + a.target);
+                            , "mixed mode assignment to " + a.target, a);
                 else if (ttype == Type.INT)
                     check(srctype == Type.CHAR
-                            , "mixed mode assignment to " + a.target);
+                            , "mixed mode assignment to " + a.target, a);
                 else
                     check(false
-                            , "mixed mode assignment to " + a.target);
+                            , "mixed mode assignment to " + a.target, a);
             }
             return;
         }
         if (s instanceof Conditional) {
             Conditional c = (Conditional) s;
-            V(c.test, tm);
-            check(typeOf(c.test, tm, functionMap) == Type.BOOL,
-                    "non-bool test in conditional");
+            Type t = V(c.test, tm);
+            check(t == null || t == Type.BOOL,
+                    "non-bool test in conditional", c.test);
             V(c.thenBranch, tm);
             V(c.elseBranch, tm);
             return;
         }
         if (s instanceof Loop) {
             Loop l = (Loop) s;
-            V(l.test, tm);
-            check(typeOf(l.test, tm, functionMap) == Type.BOOL,
-                    "loop has non-bool test");
+            Type t = V(l.test, tm);
+            check(t == null || t == Type.BOOL,
+                    "loop has non-bool test", l.test);
             V(l.body, tm);
             return;
         }
@@ -136,112 +354,135 @@ public class StaticTypeCheck {
             return;
         }
         if (s instanceof Return) {
-            check(!(returnType.equals(Type.VOID)),
-                    "Return is not a valid Statement in a Void Function");
             Return r = (Return) s;
-            check(returnType.equals(typeOf(r.retVal, tm, functionMap)),
-                    "The returned type does not match the fuction type;");
+            Type t = V(r.retVal, tm);
+            if (check(!(returnType.equals(Type.VOID)),
+                    "Return is not a valid Statement in a Void Function", r))
+                check(t == null || returnType.equals(t),
+                        "The returned type does not match the fuction type;", r);
             returnFound = true;
             return;
         }
         if (s instanceof CallStatement) {
             CallStatement c = (CallStatement) s;
-            check((functionMap.get(new Variable(c.id))).equals(Type.VOID),
-                    "Statement Calls can only be to Void statements");
-            for (Function func : dtFunction) {
-                if (func.id.equals(c.id)) {
-                    check(c.args.size() == func.params.size(),
-                            "Arguments and Parameters are different size.");
-                    for (int i = 0; i < c.args.size(); i++) {
-                        Type ti = ((Type) func.params.get(i).type);
-                        Type tj = typeOf(c.args.get(i), tm, functionMap);
-                        check(ti.equals(tj)
-                                , func.params.get(i).type + " is not equal to " + typeOf(c.args.get(i), tm, functionMap));
-                    }
-                }
-            }
+            Type ft = functionType(c.id, c.symbol);
+            if (!check(ft != null, "undefined function: " + c.id, c))
+                return;
+            check(ft.equals(Type.VOID),
+                    "Statement Calls can only be to Void statements", c);
+            V(c, c.args, tm);
             return;
         }
         throw new IllegalArgumentException("should never reach here");
     }
 
-    public static void V(Expression e, TypeMap tm) {
-        if (e instanceof Value)
+    private void V(Node call, Expressions args, TypeMap tm) {
+        // arguments of a call against the callee's parameters
+        for (Expression arg : args)
+            V(arg, tm);
+        Function func = call instanceof CallStatement
+                ? function(((CallStatement) call).id, ((CallStatement) call).symbol)
+                : function(((CallExpression) call).id, ((CallExpression) call).symbol);
+        if (func == null)
+            return;
+        if (!check(args.size() == func.params.size(),
+                "Arguments and Parameters are different size.", call))
             return;
+        for (int i = 0; i < args.size(); i++) {
+            Type ti = ((Type) func.params.get(i).type);
+            Type tj = typeOf(args.get(i), tm, functionMap);
+            check(tj == null || ti.equals(tj)
+                    , ti + " is not equal to " + tj, args.get(i));
+        }
+    }
+
+    // Checks e and returns its type, which it also records in e.type
+    // (and in every subexpression's), so that each node is typed once.
+    public Type V(Expression e, TypeMap tm) {
+        if (e instanceof Value)
+            return e.type;
         if (e instanceof Variable) {
             Variable v = (Variable) e;
-            check(tm.containsKey(v), "undeclared variable: " + v);
-            return;
+            check(tm.containsKey(v), "undeclared variable: " + v, v);
+            return (Type) tm.get(v);
         }
         if (e instanceof CallExpression) {
             CallExpression c = (CallExpression) e;
-            check(!(functionMap.get(new Variable(c.id))).equals(Type.VOID),
-                    "Expression Calls must have a return type.");
-            for (Function func : dtFunction) {
-                if (func.id.equals(c.id)) {
-                    check(c.args.size() == func.params.size(),
-                            "Arguments and Parameters are different size.");
-                    for (int i = 0; i < c.args.size(); i++) {
-                        Type ti = ((Type) func.params.get(i).type);
-                        Type tj = typeOf(c.args.get(i), tm, functionMap);
-                        check(ti.equals(tj)
-                                , func.params.get(i).type + " is not equal to " + typeOf(c.args.get(i), tm, functionMap));
-                    }
-                }
-            }
-            return;
+            Type ft = functionType(c.id, c.symbol);
+            c.type = ft;
+            if (!check(ft != null, "undefined function: " + c.id, c))
+                return null;
+            check(!ft.equals(Type.VOID),
+                    "Expression Calls must have a return type.", c);
+            V(c, c.args, tm);
+            return ft;
         }
         if (e instanceof Binary) {
             Binary b = (Binary) e;
-            Type typ1 = typeOf(b.term1, tm, functionMap);
-            Type typ2 = typeOf(b.term2, tm, functionMap);
-            V(b.term1, tm);
-            V(b.term2, tm);
+            Type typ1 = V(b.term1, tm);
+            Type typ2 = V(b.term2, tm);
+            if (b.op.ArithmeticOp())
+                b.type = typ1 == Type.FLOAT ? Type.FLOAT : Type.INT;
+            else if (b.op.RelationalOp() || b.op.BooleanOp())
+                b.type = Type.BOOL;
+            if (typ1 == null || typ2 == null)   // already reported
+                return b.type;
             if (b.op.ArithmeticOp())
                 if (b.op.ModOp())
                     check(typ1 == typ2 && typ1 == Type.INT
-                            , "type error for " + b.op);
+                            , "type error for " + b.op, b);
                 else
                     check(typ1 == typ2 &&
                                     (typ1 == Type.INT || typ1 == Type.FLOAT)
-                            , "type error for " + b.op);
+                            , "type error for " + b.op, b);
             else if (b.op.RelationalOp())
-                check(typ1 == typ2, "type error for " + b.op);
+                check(typ1 == typ2, "type error for " + b.op, b);
             else if (b.op.BooleanOp())
                 check(typ1 == Type.BOOL && typ2 == Type.BOOL,
-                        b.op + ": non-bool operand");
+                        b.op + ": non-bool operand", b);
             else
                 throw new IllegalArgumentException("should never reach here");
-            return;
+            return b.type;
         }
         if (e instanceof Unary) {
             Unary u = (Unary) e;
-            Type typ1 = typeOf(u.term, tm, functionMap);
-            V(u.term, tm);
+            Type typ1 = V(u.term, tm);
+            if (u.op.NotOp()) u.type = Type.BOOL;
+            else if (u.op.NegateOp()) u.type = typ1;
+            else if (u.op.intOp()) u.type = Type.INT;
+            else if (u.op.floatOp()) u.type = Type.FLOAT;
+            else if (u.op.charOp()) u.type = Type.CHAR;
+            if (typ1 == null)   // already reported
+                return u.type;
             if (u.op.NotOp())
-                check(typ1 == Type.BOOL, "! has non-bool operand");
+                check(typ1 == Type.BOOL, "! has non-bool operand", u);
             else if (u.op.NegateOp())
                 check(typ1 == Type.INT || typ1 == Type.FLOAT
-                        , "Unary - has non-int/float operand");
+                        , "Unary - has non-int/float operand", u);
             else if (u.op.floatOp())
-                check(typ1 == Type.INT, "float() has non-int operand");
+                check(typ1 == Type.INT, "float() has non-int operand", u);
             else if (u.op.charOp())
-                check(typ1 == Type.INT, "char() has non-int operand");
+                check(typ1 == Type.INT, "char() has non-int operand", u);
             else if (u.op.intOp())
                 check(typ1 == Type.FLOAT || typ1 == Type.CHAR
-                        , "int() has non-float/char operand");
+                        , "int() has non-float/char operand", u);
+            else if (u.op.code == Operator.Code.BOOL)
+                check(false, "bool() is not a cast", u);
             else
                 throw new IllegalArgumentException("should never reach here");
-            return;
+            return u.type;
         }
         throw new IllegalArgumentException("should never reach here");
     }
 
-    public static Type typeOf(Expression e, TypeMap tm, TypeMap fm) {
+    // Type of e, or null if e uses an undeclared variable or function;
+    // V reports those.  Reads the type V recorded when there is one;
+    // variables are always looked up in tm.
+    public Type typeOf(Expression e, TypeMap tm, TypeMap fm) {
+        if (e.type != null && !(e instanceof Variable)) return e.type;
         if (e instanceof Value) return ((Value) e).type;
         if (e instanceof Variable) {
             Variable v = (Variable) e;
-            check(tm.containsKey(v), "undefined variable: " + v);
             return (Type) tm.get(v);
         }
         if (e instanceof CallExpression) {
@@ -250,8 +491,7 @@ public class StaticTypeCheck {
                 functionMap = new TypeMap();
                 functionMap.putAll(fm);
             }
-            check(functionMap.containsKey(new Variable(c.id)), "undefined variable: " + c.id);
-            return (Type) functionMap.get(new Variable(c.id));
+            return functionType(c.id, c.symbol);
         }
         if (e instanceof Binary) {
             Binary b = (Binary) e;
@@ -269,19 +509,29 @@ public class StaticTypeCheck {
             else if (u.op.intOp()) return (Type.INT);
             else if (u.op.floatOp()) return (Type.FLOAT);
             else if (u.op.charOp()) return (Type.CHAR);
+            else if (u.op.code == Operator.Code.BOOL) return null;  // reported by V
         }
         throw new IllegalArgumentException("should never reach here");
     }
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws java.io.IOException {
+        StaticTypeCheck checker = new StaticTypeCheck();
         Parser parser = new Parser(new Lexer(args[0]));
         Program program = parser.program();
         program.display(0);
         System.out.println("\nBegin type checking...");
         System.out.println("Type map : ");
+        checker.resolve(program);
         TypeMap map = typing(program.globals);
         map.display();
-        V(program, map);
+        checker.V(program, map);
+        Diagnostics errors = parser.diagnostics();
+        errors.addAll(checker.diagnostics());
+        if (errors.hasErrors()) {
+            errors.print(System.err, program.lines);
+            System.exit(1);
+        }
+        checker.display(program, map);
         System.out.println("Type check success");
     } // main
 } // class StaticTypeCheck
@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+// Compiles a source one function at a time, so that memory is bounded by
+// the largest function rather than the whole program.  A first pass
+// reads only the globals and the function headers, skipping the bodies;
+// a second pass lexes and parses each function in turn, checks it with
+// StaticTypeCheck.V(Function, TypeMap), transforms it and hands the
+// result to a consumer before reading the next one.  Nothing but the
+// headers, the globals and the line table outlives a function.
+// Usage: java StreamingCompiler <source file>
+
+public class StreamingCompiler {
+
+    // The CompileResult's program holds the globals and the function
+    // headers (empty bodies); its output, if there were no errors, holds
+    // only the globals, since the functions went to sink.
+    public static CompileResult compile(CharSequence source, Consumer<Function> sink) {
+        Program signatures = new Parser(Lexer.forSource(source)).signatures();
+        StaticTypeCheck checker = new StaticTypeCheck();
+        TypeTransformer transformer = new TypeTransformer(checker);
+        checker.resolve(signatures);
+        TypeMap globals = StaticTypeCheck.typing(signatures.globals);
+        checker.signatures(signatures);
+        transformer.signatures(signatures);
+
+        Parser parser = new Parser(Lexer.forSource(source));
+        Diagnostics checking = checker.diagnostics();
+        while (!parser.token.type().equals(TokenType.Eof)) {
+            Functions parsed = new Functions();
+            parser.topLevel(new Declarations(), parsed);
+            if (parsed.isEmpty())
+                continue;
+            Function f = parsed.get(0);
+            try {
+                checker.resolve(f);
+                checker.V(f);
+                TypeMap fMap = StaticTypeCheck.typing(f, globals);
+                checker.V(f, fMap);
+                if (!checking.hasErrors() && !parser.diagnostics().hasErrors())
+                    sink.accept(transformer.T(f, fMap));
+            } catch (IllegalArgumentException e) { // a construct the checker cannot handle
+                checking.error(f.span(), "internal error: " + e.getMessage());
+            }
+        }
+
+        Diagnostics diagnostics = parser.diagnostics();
+        diagnostics.addAll(checking);
+        signatures.lines = parser.lexer.lines();
+        Program output = diagnostics.hasErrors() ? null
+                : new Program(signatures.globals, new Functions());
+        return new CompileResult(signatures, globals, output, diagnostics);
+    }
+
+    public static CompileResult compileFile(String fileName, Consumer<Function> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return compile(new ByteSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())), sink);
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        int[] functions = new int[1];
+        CompileResult result = compileFile(args[0], f -> {
+            System.out.println("Function " + f.id + " compiled");
+            functions[0]++;
+        });
+        if (!result.ok()) {
+            result.printDiagnostics(System.err, args[0]);
+            System.exit(1);
+        }
+        System.out.println(functions[0] + " functions compiled");
+    }
+}
@@ -1,10 +1,5 @@
 public class Token {
 
-    private static final int KEYWORDS = TokenType.Eof.ordinal();
-
-    private static final String[] reserved = new String[KEYWORDS];
-    private static Token[] token = new Token[KEYWORDS];
-
     public static final Token eofTok = new Token(TokenType.Eof, "<<EOF>>");
     public static final Token boolTok = new Token(TokenType.Bool, "bool");
     public static final Token charTok = new Token(TokenType.Char, "char");
@@ -45,15 +40,12 @@ public class Token {
 
     private TokenType type;
     private String value = "";
+    private int intValue;       // decoded payload of Int/CharLiteral tokens
+    private float floatValue;   // decoded payload of FloatLiteral tokens
 
     private Token(TokenType t, String v) {
         type = t;
         value = v;
-        if (t.compareTo(TokenType.Eof) < 0) {
-            int ti = t.ordinal();
-            reserved[ti] = v;
-            token[ti] = this;
-        }
     }
 
     public TokenType type() {
@@ -64,28 +56,71 @@ public class Token {
         return value;
     }
 
-    public static Token keyword(String name) {
-        char ch = name.charAt(0);
-        if (ch >= 'A' && ch <= 'Z') return mkIdentTok(name);
-        for (int i = 0; i < KEYWORDS; i++)
-            if (name.equals(reserved[i])) return token[i];
-        return mkIdentTok(name);
+    public int intValue() {
+        return intValue;
+    }
+
+    public float floatValue() {
+        return floatValue;
+    }
+
+    public char charValue() {
+        return (char) intValue;
+    }
+
+    // Keyword for src[offset, offset + length), or null for an identifier.
+    // Length and one or two leading chars pick the only candidate.
+    public static Token keyword(CharSequence src, int offset, int length) {
+        Token k = switch (length) {
+            case 2 -> ifTok;
+            case 3 -> intTok;
+            case 4 -> switch (src.charAt(offset)) {
+                case 'b' -> boolTok;
+                case 'c' -> charTok;
+                case 'e' -> elseTok;
+                case 'm' -> mainTok;
+                case 't' -> trueTok;
+                case 'v' -> voidTok;
+                default -> null;
+            };
+            case 5 -> switch (src.charAt(offset)) {
+                case 'f' -> src.charAt(offset + 1) == 'a' ? falseTok : floatTok;
+                case 'w' -> whileTok;
+                default -> null;
+            };
+            case 6 -> returnTok;
+            default -> null;
+        };
+        return k != null && k.spells(src, offset, length) ? k : null;
     } // keyword
 
+    boolean spells(CharSequence src, int offset, int length) {
+        if (value.length() != length) return false;
+        for (int i = 0; i < length; i++)
+            if (value.charAt(i) != src.charAt(offset + i)) return false;
+        return true;
+    }
+
     public static Token mkIdentTok(String name) {
         return new Token(TokenType.Identifier, name);
     }
 
     public static Token mkIntLiteral(String name) {
-        return new Token(TokenType.IntLiteral, name);
+        Token t = new Token(TokenType.IntLiteral, name);
+        t.intValue = Integer.parseInt(name);
+        return t;
     }
 
     public static Token mkFloatLiteral(String name) {
-        return new Token(TokenType.FloatLiteral, name);
+        Token t = new Token(TokenType.FloatLiteral, name);
+        t.floatValue = Float.parseFloat(name);
+        return t;
     }
 
     public static Token mkCharLiteral(String name) {
-        return new Token(TokenType.CharLiteral, name);
+        Token t = new Token(TokenType.CharLiteral, name);
+        t.intValue = name.charAt(0);
+        return t;
     }
 
     public String toString() {
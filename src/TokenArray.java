@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+// A growable array of tokens, with their spans in a parallel long[],
+// that can be replayed as a TokenStream.
+
+public class TokenArray implements TokenStream {
+
+    private Token[] tokens;
+    private long[] spans;
+    private int size = 0;
+    private int cursor = 0;
+    private LineTable lines = new LineTable();
+    private Diagnostics diagnostics = new Diagnostics();
+
+    public TokenArray() {
+        this(64);
+    }
+
+    public TokenArray(int capacity) {
+        tokens = new Token[Math.max(capacity, 1)];
+        spans = new long[tokens.length];
+    }
+
+    public void add(Token t, long span) {
+        if (size == tokens.length)
+            grow(size * 2);
+        tokens[size] = t;
+        spans[size++] = span;
+    }
+
+    public void addAll(TokenArray a) { // tokens and line starts of a following chunk
+        if (size + a.size > tokens.length)
+            grow(Math.max(size + a.size, size * 2));
+        System.arraycopy(a.tokens, 0, tokens, size, a.size);
+        System.arraycopy(a.spans, 0, spans, size, a.size);
+        size += a.size;
+        lines.addAll(a.lines);
+        diagnostics.addAll(a.diagnostics);
+    }
+
+    private void grow(int capacity) {
+        tokens = Arrays.copyOf(tokens, capacity);
+        spans = Arrays.copyOf(spans, capacity);
+    }
+
+    public Token get(int i) {
+        return tokens[i];
+    }
+
+    public long span(int i) {
+        return spans[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token next() {
+        return cursor < size ? tokens[cursor++] : Token.eofTok;
+    }
+
+    public long span() {
+        return cursor > 0 ? spans[cursor - 1] : Span.NONE;
+    }
+
+    public LineTable lines() {
+        return lines;
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+    public void rewind() {
+        cursor = 0;
+    }
+
+    // Tokens from .. to-1 as a stream of their own that ends with Eof,
+    // sharing this array's line table but reporting into fresh Diagnostics.
+    public TokenStream range(int from, int to) {
+        long eofSpan = to < size ? Span.of(Span.start(spans[to]), Span.start(spans[to]))
+                : spans[size - 1];
+        return new TokenStream() {
+            private int at = from;
+            private long span = Span.NONE;
+            private final Diagnostics diagnostics = new Diagnostics();
+
+            public Token next() {
+                if (at < to) {
+                    span = spans[at];
+                    return tokens[at++];
+                }
+                span = eofSpan;
+                return Token.eofTok;
+            }
+
+            public long span() {
+                return span;
+            }
+
+            public LineTable lines() {
+                return lines;
+            }
+
+            public Diagnostics diagnostics() {
+                return diagnostics;
+            }
+        };
+    }
+
+    // Same token types, spellings and spans; identities may differ when
+    // the two arrays were interned by different Lexers.
+    public boolean sameTokens(TokenArray a) {
+        if (size != a.size || lines.lines() != a.lines.lines()) return false;
+        for (int i = 0; i < size; i++)
+            if (tokens[i].type() != a.tokens[i].type() || spans[i] != a.spans[i]
+                    || !tokens[i].value().equals(a.tokens[i].value()))
+                return false;
+        return true;
+    }
+
+    public static TokenArray of(Lexer lexer) { // drain a Lexer, Eof included
+        TokenArray a = new TokenArray();
+        Token t;
+        do {
+            t = lexer.next();
+            a.add(t, lexer.span());
+        } while (t != Token.eofTok);
+        a.lines = lexer.lines();
+        a.diagnostics = lexer.diagnostics();
+        return a;
+    }
+}
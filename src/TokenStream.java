@@ -0,0 +1,13 @@
+// Source of tokens for the Parser: a Lexer scanning text on demand,
+// or a TokenArray holding tokens that were scanned ahead of time.
+
+public interface TokenStream {
+
+    Token next(); // Return next token, Token.eofTok at the end
+
+    long span(); // Span of the token last returned by next()
+
+    LineTable lines(); // line starts of the source being read
+
+    Diagnostics diagnostics(); // where lexical and syntax errors go
+}
@@ -0,0 +1,64 @@
+// Interns identifier and literal tokens for one Lexer, so every
+// occurrence of a spelling shares one Token and one String, and a
+// literal is decoded only the first time its spelling is seen.
+// Lookups compare against the source buffer without copying it.
+
+public class TokenTable {
+
+    private Token[] tokens = new Token[256];
+    private int[] hashes = new int[256];
+    private int size = 0;
+
+    public Token intern(TokenType type, CharSequence src, int offset, int length) {
+        int h = type.ordinal();
+        for (int i = 0; i < length; i++)
+            h = 31 * h + src.charAt(offset + i);
+        int mask = tokens.length - 1;
+        int i = mix(h) & mask;
+        for (Token t = tokens[i]; t != null; t = tokens[i]) {
+            if (hashes[i] == h && t.type() == type && t.spells(src, offset, length))
+                return t;
+            i = (i + 1) & mask;
+        }
+        Token t = make(type, src.subSequence(offset, offset + length).toString());
+        tokens[i] = t;
+        hashes[i] = h;
+        if (++size * 2 > tokens.length)
+            grow();
+        return t;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static Token make(TokenType type, String spelling) {
+        return switch (type) {
+            case Identifier -> Token.mkIdentTok(spelling);
+            case IntLiteral -> Token.mkIntLiteral(spelling);
+            case FloatLiteral -> Token.mkFloatLiteral(spelling);
+            case CharLiteral -> Token.mkCharLiteral(spelling);
+            default -> throw new IllegalArgumentException("not an internable token: " + type);
+        };
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        Token[] oldTokens = tokens;
+        int[] oldHashes = hashes;
+        tokens = new Token[oldTokens.length * 2];
+        hashes = new int[oldTokens.length * 2];
+        int mask = tokens.length - 1;
+        for (int j = 0; j < oldTokens.length; j++) {
+            if (oldTokens[j] == null) continue;
+            int i = mix(oldHashes[j]) & mask;
+            while (tokens[i] != null)
+                i = (i + 1) & mask;
+            tokens[i] = oldTokens[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+}
@@ -1,12 +1,144 @@
 import java.util.*;
 
-public class TypeMap extends HashMap<VariableRef, Type> {
+// The variables of one scope and their types.  A function's scope
+// chains to the globals: get and containsKey fall back to the parent,
+// so the globals are shared rather than copied into every function.
+// The entries are kept in declaration order and found by the symbol id
+// of their variable through a small open-addressed table, never hashing
+// the name.  A map of names is built only once a variable without an id
+// is put or looked up, and kept up to date from then on.
+
+public class TypeMap {
+    private final TypeMap parent;
+    private VariableRef[] keys = new VariableRef[8];
+    private Type[] types = new Type[8];
+    private int size = 0;
+    private int[] symbols = new int[8];        // symbol id + 1; 0 is empty
+    private int[] entries = new int[8];        // index in keys and types
+    private int indexed = 0;
+    private boolean unindexed = false;         // some entry has no symbol id
+    private Map<String, Integer> byName;       // entries by name, once needed
+
+    public TypeMap() {
+        this(null);
+    }
+
+    public TypeMap(TypeMap parent) {
+        this.parent = parent;
+    }
+
+    public TypeMap parent() {
+        return parent;
+    }
+
+    public Type get(VariableRef key) {
+        return get(key.id, key.symbol);
+    }
+
+    // The type of the variable called id, found by its symbol when it has
+    // one (symbol >= 0); null if neither this scope nor a parent has it
+    public Type get(String id, int symbol) {
+        int e = entry(id, symbol);
+        if (e >= 0) return types[e];
+        return parent == null ? null : parent.get(id, symbol);
+    }
+
+    public boolean containsKey(VariableRef key) {
+        return get(key) != null;
+    }
+
+    public boolean isEmpty() {
+        return size == 0 && (parent == null || parent.isEmpty());
+    }
+
+    public Type put(VariableRef key, Type type) {
+        int e = entry(key.id, key.symbol);
+        if (e >= 0) {
+            Type old = types[e];
+            types[e] = type;
+            if (key.symbol >= 0 && unindexed && find(key.symbol) < 0)
+                index(key.symbol, e);   // put by name before
+            return old;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            types = Arrays.copyOf(types, 2 * size);
+        }
+        e = size++;
+        keys[e] = key;
+        types[e] = type;
+        if (byName != null)
+            byName.put(key.id, e);
+        if (key.symbol >= 0)
+            index(key.symbol, e);
+        else
+            unindexed = true;
+        return null;
+    }
+
+    public void putAll(TypeMap m) { // m's own entries, not its parent's
+        for (int e = 0; e < m.size; e++)
+            put(m.keys[e], m.types[e]);
+    }
+
+    // Adds v to this scope; false, leaving the scope unchanged, if this
+    // scope (not a parent) already declares it.
+    public boolean declare(VariableRef v, Type t) {
+        if (entry(v.id, v.symbol) >= 0)
+            return false;
+        put(v, t);
+        return true;
+    }
+
+    // Index in keys of this scope's entry for id, or -1
+    private int entry(String id, int symbol) {
+        if (symbol >= 0) {
+            int e = find(symbol);
+            if (e >= 0 || !unindexed) return e;
+        }
+        if (size == 0) return -1;
+        if (byName == null) {
+            byName = new HashMap<String, Integer>();
+            for (int e = 0; e < size; e++)
+                byName.putIfAbsent(keys[e].id, e);
+        }
+        Integer e = byName.get(id);
+        return e == null ? -1 : e;
+    }
+
+    private int find(int s) {
+        int mask = symbols.length - 1;
+        for (int i = s & mask; symbols[i] != 0; i = (i + 1) & mask)
+            if (symbols[i] == s + 1)
+                return entries[i];
+        return -1;
+    }
+
+    private void index(int s, int entry) {
+        if (2 * (indexed + 1) > symbols.length) {
+            int[] oldSymbols = symbols;
+            int[] oldEntries = entries;
+            symbols = new int[oldSymbols.length * 2];
+            entries = new int[oldSymbols.length * 2];
+            indexed = 0;
+            for (int j = 0; j < oldSymbols.length; j++)
+                if (oldSymbols[j] != 0)
+                    index(oldSymbols[j] - 1, oldEntries[j]);
+        }
+        int mask = symbols.length - 1;
+        int i = s & mask;
+        while (symbols[i] != 0)
+            i = (i + 1) & mask;
+        indexed++;
+        symbols[i] = s + 1;
+        entries[i] = entry;
+    }
 
     public void display() {
         System.out.print("{ ");
         String sep = "";
-        for (VariableRef key : keySet()) {
-            System.out.print(sep + "<" + key + ", " + get(key).getId() + ">");
+        for (int e = 0; e < size; e++) {
+            System.out.print(sep + "<" + keys[e] + ", " + types[e].getId() + ">");
             sep = ", ";
         }
         System.out.println(" }");
@@ -15,7 +147,8 @@ public class TypeMap extends HashMap<VariableRef, Type> {
     public void display(Functions f, TypeMap fm) {
         String sep = "  ";
         String sep2 = "";
-        for (VariableRef key : keySet()) {
+        for (int e = 0; e < size; e++) {
+            VariableRef key = keys[e];
             if (f != null) {
                 int funcloc = -1;
                 for (int i = 0; i < f.size(); i++) {
@@ -32,12 +165,12 @@ public class TypeMap extends HashMap<VariableRef, Type> {
                         }
                     }
 
-                    System.out.print("), " + get(key).getId() + ">");
+                    System.out.print("), " + types[e].getId() + ">");
                 } else {
-                    System.out.print(sep + "<" + key + ", " + get(key).getId() + ">");
+                    System.out.print(sep + "<" + key + ", " + types[e].getId() + ">");
                 }
             } else {
-                System.out.print(sep + "<" + key + ", " + get(key).getId() + ">");
+                System.out.print(sep + "<" + key + ", " + types[e].getId() + ">");
             }
             sep = ",\n  ";
             sep2 = "";
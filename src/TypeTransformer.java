@@ -1,136 +1,252 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 /**
  * 타입변환을 위한 클래스
  */
 public class TypeTransformer {
-    private static Type returnType;
-    private static boolean returnFound = false;
-    private static TypeMap functionMap = new TypeMap();
-    private static Functions dtFunction = new Functions();
+    private final StaticTypeCheck checker; // records the diagnostics
+    private Type returnType;
+    private boolean returnFound = false;
+    private TypeMap functionMap = new TypeMap();
+    private ExpressionFactory sharing;
+    private Map<Expression, Expression> transformed = new IdentityHashMap<Expression, Expression>();
+
+    public TypeTransformer(StaticTypeCheck checker) {
+        this.checker = checker;
+    }
+
+    // A transformer for some of the functions of the program signatures
+    // is transforming, sharing its function signatures
+    private TypeTransformer(TypeTransformer signatures, StaticTypeCheck checker) {
+        this.checker = checker;
+        functionMap = signatures.functionMap;
+    }
+
+    public void reset() { // forget the previous program
+        returnType = null;
+        returnFound = false;
+        functionMap = new TypeMap();
+        sharing = null;
+        transformed.clear();
+    }
+
+    // With a factory, each distinct input subtree of a function is
+    // transformed once and the results are interned, so shared input
+    // (see ExpressionFactory.share) gives shared output.
+    public void share(ExpressionFactory factory) {
+        sharing = factory;
+        transformed.clear();
+    }
 
-    public static Program T(Program p, TypeMap GM) {
-        dtFunction.addAll(p.functions);
+    public Program T(Program p, TypeMap GM) {
+        signatures(p);
+        for (Function func : p.functions) {
+            T(func);
+        }
+        Functions NF = new Functions();
+        NF = T(p.functions, GM);
+
+        return new Program(p.globals, NF);
+    }
+
+    public void signatures(Program p) {
         Declarations ds = new Declarations();
         ds.addAll(p.globals);
         for (int i = 0; i < p.functions.size(); i++) {
             Variable fl = new Variable(p.functions.get(i).id);
+            fl.symbol = p.functions.get(i).symbol;
             ds.add(new VariableDeclare(fl, p.functions.get(i).type));
             functionMap.put(fl, p.functions.get(i).type);
         }
         T(ds);
-        for (Function func : p.functions) {
-            T(func);
-        }
-        Functions NF = new Functions();
-        NF = T(p.functions, GM);
-
-        return new Program(p.globals, NF);
     }
 
-    public static void T(Function f) {
+    public void T(Function f) {
         Declarations ds = new Declarations();
         ds.addAll(f.params);
         ds.addAll(f.locals);
         T(ds);
     }
 
-    public static Functions T(Functions f, TypeMap tm) {
-        Functions NF = new Functions();
-        for (Function func : f) {
-            TypeMap fMap = new TypeMap();
-            fMap.putAll(tm);
-            fMap.putAll(StaticTypeCheck.typing(func.params));
-            fMap.putAll(StaticTypeCheck.typing(func.locals));
-            NF.add(T(func, fMap));
+    // T(p, GM), transforming the function bodies in parallel on pool.
+    // With a pool of null, or an ExpressionFactory installed (which is
+    // not thread-safe), the functions are transformed sequentially.
+    public Program T(Program p, TypeMap GM, ForkJoinPool pool) {
+        if (pool == null || sharing != null)
+            return T(p, GM);
+        return T(p, GM, p.functions, pool);
+    }
+
+    // T(p, GM, pool) whose output has only the given functions of p
+    // (see CallGraph), the bodies that StaticTypeCheck checked.
+    public Program T(Program p, TypeMap GM, Functions bodies, ForkJoinPool pool) {
+        signatures(p);
+        for (Function func : p.functions) {
+            T(func);
+        }
+        if (pool == null || sharing != null)
+            return new Program(p.globals, T(bodies, GM));
+        return new Program(p.globals, T(bodies, GM, pool));
+    }
+
+    // T(f, tm) with runs of functions transformed by separate
+    // transformers on pool, each recording into its own checker; the
+    // output and the diagnostics are collected in source order.
+    public Functions T(Functions f, TypeMap tm, ForkJoinPool pool) {
+        List<StaticTypeCheck> workers = new ArrayList<StaticTypeCheck>();
+        List<ForkJoinTask<IllegalArgumentException>> parts = new ArrayList<ForkJoinTask<IllegalArgumentException>>();
+        Function[] out = new Function[f.size()];
+        int batch = StaticTypeCheck.batchSize(f.size(), pool);
+        for (int from = 0; from < f.size(); from += batch) {
+            int start = from, end = Math.min(f.size(), from + batch);
+            StaticTypeCheck worker = new StaticTypeCheck(checker);
+            TypeTransformer transformer = new TypeTransformer(this, worker);
+            workers.add(worker);
+            parts.add(pool.submit(() -> {
+                try {
+                    for (int i = start; i < end; i++)
+                        out[i] = transformer.T(f.get(i), StaticTypeCheck.typing(f.get(i), tm));
+                    return null;
+                } catch (IllegalArgumentException e) {
+                    return e;
+                }
+            }));
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            IllegalArgumentException failure = parts.get(i).join();
+            checker.diagnostics().addAll(workers.get(i).diagnostics());
+            if (failure != null)
+                throw failure;
         }
+        Functions NF = new Functions();
+        for (Function func : out)
+            NF.add(func);
+        return NF;
+    }
+
+    public Functions T(Functions f, TypeMap tm) {
+        Functions NF = new Functions();
+        for (Function func : f)
+            NF.add(T(func, StaticTypeCheck.typing(func, tm)));
         return NF;
     }
 
-    public static Function T(Function f, TypeMap tm) {
+    public Function T(Function f, TypeMap tm) {
         returnType = f.type;
         returnFound = false;
+        if (sharing != null) {
+            sharing.beginFunction();
+            transformed.clear();
+        }
         Block b = (Block) T(f.body, tm);
         Function NF = new Function(f.type, f.id, f.params, f.locals, b);
+        NF.symbol = f.symbol;
 
         if (!(returnType.equals(Type.VOID)) && !f.id.equals("main")) {
-            StaticTypeCheck.check((returnFound == true),
+            checker.check((returnFound == true),
                     f.id + " is a non-Void function with no Return Statement");
         }
         return NF;
     }
 
-    public static void T(Declarations d) {
-        for (int i = 0; i < d.size() - 1; i++)
-            for (int j = i + 1; j < d.size(); j++) {
-                Declaration di = d.get(i);
-                Declaration dj = d.get(j);
-                StaticTypeCheck.check(!(di.variable.equals(dj.variable)),
-                        "duplicate declaration: " + dj.variable);
-            }
+    public void T(Declarations d) {
+        TypeMap scope = new TypeMap();
+        for (Declaration di : d)
+            checker.check(scope.declare(di.variable, di.type),
+                    "duplicate declaration: " + di.variable);
+    }
+
+    public Expression T(Expression e, TypeMap tm) {
+        if (sharing == null)
+            return transform(e, tm);
+        Expression t = transformed.get(e);
+        if (t == null) {
+            t = sharing.intern(transform(e, tm));
+            transformed.put(e, t);
+        }
+        return t;
+    }
+
+    private Expressions T(Expressions args, TypeMap tm) {
+        Expressions out = new Expressions();
+        for (Expression arg : args)
+            out.add(T(arg, tm));
+        return out;
     }
 
-    public static Expression T(Expression e, TypeMap tm) {
+    private Expression shared(Expression e) {
+        return sharing == null ? e : sharing.intern(e);
+    }
+
+    private Expression transform(Expression e, TypeMap tm) {
         if (e instanceof Value)
             return e;
         if (e instanceof VariableRef)
             return e;
         if (e instanceof CallExpression) {
             CallExpression c = (CallExpression) e;
-            StaticTypeCheck.check(!(functionMap.get(new Variable(c.id))).equals(Type.VOID),
+            checker.check(!checker.functionType(c.id, c.symbol).equals(Type.VOID),
                     "Expression Calls must have a return type.");
-            for (Function func : dtFunction) {
-                if (func.id.equals(c.id)) {
-                    StaticTypeCheck.check(c.args.size() == func.params.size(),
-                            "Arguments and Parameters are different size.");
-
-                    for (int i = 0; i < c.args.size(); i++) {
-                        Type ti = ((Type) func.params.get(i).type);
-                        Type tj = StaticTypeCheck.typeOf(c.args.get(i), tm, functionMap);
-                        StaticTypeCheck.check(ti.equals(tj)
-                                , func.params.get(i).type + " is not equal to " + StaticTypeCheck.typeOf(c.args.get(i), tm, functionMap));
-                    }
+            Function func = checker.function(c.id, c.symbol);
+            if (func != null) {
+                checker.check(c.args.size() == func.params.size(),
+                        "Arguments and Parameters are different size.");
+
+                for (int i = 0; i < c.args.size(); i++) {
+                    Type ti = ((Type) func.params.get(i).type);
+                    Type tj = checker.typeOf(c.args.get(i), tm, functionMap);
+                    checker.check(ti.equals(tj)
+                            , func.params.get(i).type + " is not equal to " + checker.typeOf(c.args.get(i), tm, functionMap));
                 }
-                return c;
             }
-
+            CallExpression out = new CallExpression(c.id, T(c.args, tm));
+            out.symbol = c.symbol;
+            out.type = c.type;
+            return out;
         }
         if (e instanceof Binary) {
             Binary b = (Binary) e;
-            Type typ1 = StaticTypeCheck.typeOf(b.term1, tm, functionMap);
-            Type typ2 = StaticTypeCheck.typeOf(b.term2, tm, functionMap);
+            Type typ1 = checker.typeOf(b.term1, tm, functionMap);
+            Type typ2 = checker.typeOf(b.term2, tm, functionMap);
             Expression t1 = T(b.term1, tm);
             Expression t2 = T(b.term2, tm);
             if (typ1 == Type.FLOAT || typ2 == Type.FLOAT)
                 if (typ1 == Type.INT)
-                    return new Binary(b.op.floatMap(b.op.val), new Unary(new Operator(Operator.I2F), t1), t2);
+                    return new Binary(b.op.floatMap(), new Unary(Operator.of(Operator.Code.I2F), t1), t2);
                 else if (typ2 == Type.INT)
-                    return new Binary(b.op.floatMap(b.op.val), t1, new Unary(new Operator(Operator.I2F), t2));
+                    return new Binary(b.op.floatMap(), t1, new Unary(Operator.of(Operator.Code.I2F), t2));
                 else
-                    return new Binary(b.op.floatMap(b.op.val), t1, t2);
+                    return new Binary(b.op.floatMap(), t1, t2);
             else if (typ1 == Type.INT || typ2 == Type.INT)
                 if (typ1 == Type.CHAR)
-                    return new Binary(b.op.intMap(b.op.val), new Unary(new Operator(Operator.C2I), t1), t2);
+                    return new Binary(b.op.intMap(), new Unary(Operator.of(Operator.Code.C2I), t1), t2);
                 else if (typ2 == Type.CHAR)
-                    return new Binary(b.op.intMap(b.op.val), t1, new Unary(new Operator(Operator.C2I), t2));
+                    return new Binary(b.op.intMap(), t1, new Unary(Operator.of(Operator.Code.C2I), t2));
                 else
-                    return new Binary(b.op.intMap(b.op.val), t1, t2);
+                    return new Binary(b.op.intMap(), t1, t2);
             else if (typ1 == Type.CHAR || typ2 == Type.CHAR)
-                return new Binary(b.op.charMap(b.op.val), t1, t2);
+                return new Binary(b.op.charMap(), t1, t2);
             else if (typ1 == Type.BOOL || typ2 == Type.BOOL)
-                return new Binary(b.op.boolMap(b.op.val), t1, t2);
+                return new Binary(b.op.boolMap(), t1, t2);
             throw new IllegalArgumentException("should never reach here");
         }
         if (e instanceof Unary) {
             Unary u = (Unary) e;
-            Type type = StaticTypeCheck.typeOf(u.term, tm, functionMap);
+            Type type = checker.typeOf(u.term, tm, functionMap);
             Expression term = T(u.term, tm);
             if (type == Type.FLOAT)
-                return new Unary(u.op.floatMap(u.op.val), term);
+                return new Unary(u.op.floatMap(), term);
             else if (type == Type.INT)
-                return new Unary(u.op.intMap(u.op.val), term);
+                return new Unary(u.op.intMap(), term);
             else if (type == Type.CHAR)
-                return new Unary(u.op.charMap(u.op.val), term);
+                return new Unary(u.op.charMap(), term);
             else if (type == Type.BOOL)
-                return new Unary(u.op.boolMap(u.op.val), term);
+                return new Unary(u.op.boolMap(), term);
             else {
                 throw new IllegalArgumentException("should never reach here");
             }
@@ -138,26 +254,26 @@ public class TypeTransformer {
         throw new IllegalArgumentException("should never reach here");
     }
 
-    public static Statement T(Statement s, TypeMap tm) {
+    public Statement T(Statement s, TypeMap tm) {
         if (s instanceof Skip) return s;
         if (s instanceof Assignment) {
             Assignment a = (Assignment) s;
             VariableRef target = a.target;
             Expression src = T(a.source, tm);
             Type ttype = (Type) tm.get(a.target);
-            Type srctype = StaticTypeCheck.typeOf(a.source, tm, functionMap);
+            Type srctype = checker.typeOf(a.source, tm, functionMap);
             if (ttype == Type.FLOAT) {
                 if (srctype == Type.INT) {
-                    src = new Unary(new Operator(Operator.I2F), src);
+                    src = shared(new Unary(Operator.of(Operator.Code.I2F), src));
                     srctype = Type.FLOAT;
                 }
             } else if (ttype == Type.INT) {
                 if (srctype == Type.CHAR) {
-                    src = new Unary(new Operator(Operator.C2I), src);
+                    src = shared(new Unary(Operator.of(Operator.Code.C2I), src));
                     srctype = Type.INT;
                 }
             }
-            StaticTypeCheck.check(ttype == srctype,
+            checker.check(ttype == srctype,
                     "bug in assignment to " + target);
             return new Assignment(target, src);
         }
@@ -183,33 +299,34 @@ public class TypeTransformer {
         }
         if (s instanceof Return) {
             //타입규칙 10.5
-            StaticTypeCheck.check(!(returnType.equals(Type.VOID)),
+            checker.check(!(returnType.equals(Type.VOID)),
                     "Return is not a valid Statement in a Void Function");
             Return r = (Return) s;
             //타입규칙 10.4
             Return q = new Return(r.target, T(r.retVal, tm));
-            StaticTypeCheck.check(returnType.equals(StaticTypeCheck.typeOf(q.retVal, tm, functionMap)),
+            checker.check(returnType.equals(checker.typeOf(q.retVal, tm, functionMap)),
                     "The returned type does not match the fuction type;");
             returnFound = true;
             return q;
         }
         if (s instanceof CallStatement) {
             CallStatement c = (CallStatement) s;
-            StaticTypeCheck.check((functionMap.get(new Variable(c.id))).equals(Type.VOID),
+            checker.check(checker.functionType(c.id, c.symbol).equals(Type.VOID),
                     "Statement Calls can only be to Void statements");
-            for (Function func : dtFunction) {
-                if (func.id.equals(c.id)) {
-                    StaticTypeCheck.check(c.args.size() == func.params.size(),
-                            "Arguments and Parameters are different size.");
-                    for (int i = 0; i < c.args.size(); i++) {
-                        Type ti = ((Type) func.params.get(i).type);
-                        Type tj = StaticTypeCheck.typeOf(c.args.get(i), tm, functionMap);
-                        StaticTypeCheck.check(ti.equals(tj)
-                                , func.params.get(i).type + " is not equal to " + StaticTypeCheck.typeOf(c.args.get(i), tm, functionMap));
-                    }
+            Function func = checker.function(c.id, c.symbol);
+            if (func != null) {
+                checker.check(c.args.size() == func.params.size(),
+                        "Arguments and Parameters are different size.");
+                for (int i = 0; i < c.args.size(); i++) {
+                    Type ti = ((Type) func.params.get(i).type);
+                    Type tj = checker.typeOf(c.args.get(i), tm, functionMap);
+                    checker.check(ti.equals(tj)
+                            , func.params.get(i).type + " is not equal to " + checker.typeOf(c.args.get(i), tm, functionMap));
                 }
             }
-            return c;
+            CallStatement out = new CallStatement(c.id, T(c.args, tm));
+            out.symbol = c.symbol;
+            return out;
         }
         throw new IllegalArgumentException("should never reach here");
     }
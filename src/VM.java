@@ -0,0 +1,281 @@
+import java.util.Arrays;
+
+// Runs Bytecode: one loop dispatching on the opcode at pc, over a single
+// long[] of registers in which each call's frame starts where its
+// caller's ends.  Calls push the caller's pc, frame and result register
+// on an int[] stack rather than the Java stack, so recursion is bounded
+// by memory only.  Its final state is the one Semantics.M gives.
+//
+// Benchmark bytecode puts it ahead of the executable nodes only on calls
+// (fibonacci); the JIT inlines the nodes of a loop into one another, so
+// they win on int loops (factorial, by a quarter or so) and clearly on
+// float arithmetic (newton, 1.2 to 4 times faster, varying from run to
+// run).  What the VM offers over them is that it does not recurse on the
+// Java stack.
+// Usage: java VM [-d] <source file>   (-d: print the disassembly first)
+
+public class VM {
+
+    private final Bytecode program;
+    private long[] registers = new long[1024];
+    private int[] calls = new int[256];    // per call: pc, frame, result, frame size
+    private final long[] globals;
+
+    public VM(Bytecode program) {
+        this.program = program;
+        globals = new long[program.program.globals.size()];
+    }
+
+    // Runs main from fresh globals; the result is main's frame and the
+    // globals, boxed as Semantics.M would leave them.
+    public State run() {
+        if (program.main < 0)
+            throw new IllegalArgumentException("no main function");
+        Arrays.fill(globals, Evaluator.UNDEF);
+        Function main = program.functions[program.main];
+        ensure(program.registers[program.main]);
+        Arrays.fill(registers, 0, main.frameSize, Evaluator.UNDEF);
+        execute(program.entry[program.main], program.registers[program.main]);
+
+        State global = new State(program.program.globals);
+        Evaluator.box(global, program.program.globals, 0, globals);
+        State state = new State(main, global);
+        Evaluator.box(state, main.params, 0, registers);
+        Evaluator.box(state, main.locals, main.params.size(), registers);
+        return state;
+    }
+
+    private void ensure(int size) {
+        if (size > registers.length)
+            registers = Arrays.copyOf(registers, Math.max(size, 2 * registers.length));
+    }
+
+    private void execute(int pc, int frameSize) {
+        final int[] code = program.code;
+        final long[] globals = this.globals;
+        long[] r = registers;
+        int fp = 0, sp = 0;
+        while (true) {
+            switch (code[pc]) {
+                case Bytecode.MOVE -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]];
+                    pc += 3;
+                }
+                case Bytecode.CONST -> {
+                    r[fp + code[pc + 1]] = code[pc + 2];
+                    pc += 3;
+                }
+                case Bytecode.LOADG -> {
+                    r[fp + code[pc + 1]] = globals[code[pc + 2]];
+                    pc += 3;
+                }
+                case Bytecode.STOREG -> {
+                    globals[code[pc + 1]] = r[fp + code[pc + 2]];
+                    pc += 3;
+                }
+                case Bytecode.DEF -> {
+                    if (r[fp + code[pc + 1]] == Evaluator.UNDEF)
+                        throw new IllegalArgumentException("reference to undef value");
+                    pc += 2;
+                }
+                case Bytecode.IADD -> {
+                    r[fp + code[pc + 1]] = (int) r[fp + code[pc + 2]] + (int) r[fp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Bytecode.ISUB -> {
+                    r[fp + code[pc + 1]] = (int) r[fp + code[pc + 2]] - (int) r[fp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Bytecode.IMUL -> {
+                    r[fp + code[pc + 1]] = (int) r[fp + code[pc + 2]] * (int) r[fp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Bytecode.IDIV -> {
+                    r[fp + code[pc + 1]] = (int) r[fp + code[pc + 2]] / (int) r[fp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Bytecode.IMOD -> {
+                    r[fp + code[pc + 1]] = (int) r[fp + code[pc + 2]] % (int) r[fp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Bytecode.ILT -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] < r[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.ILE -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] <= r[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.IGT -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] > r[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.IGE -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] >= r[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.IEQ -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] == r[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.INE -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] != r[fp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.FADD -> {
+                    r[fp + code[pc + 1]] = bits(f(r[fp + code[pc + 2]]) + f(r[fp + code[pc + 3]]));
+                    pc += 4;
+                }
+                case Bytecode.FSUB -> {
+                    r[fp + code[pc + 1]] = bits(f(r[fp + code[pc + 2]]) - f(r[fp + code[pc + 3]]));
+                    pc += 4;
+                }
+                case Bytecode.FMUL -> {
+                    r[fp + code[pc + 1]] = bits(f(r[fp + code[pc + 2]]) * f(r[fp + code[pc + 3]]));
+                    pc += 4;
+                }
+                case Bytecode.FDIV -> {
+                    r[fp + code[pc + 1]] = bits(f(r[fp + code[pc + 2]]) / f(r[fp + code[pc + 3]]));
+                    pc += 4;
+                }
+                case Bytecode.FLT -> {
+                    r[fp + code[pc + 1]] = f(r[fp + code[pc + 2]]) < f(r[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.FLE -> {
+                    r[fp + code[pc + 1]] = f(r[fp + code[pc + 2]]) <= f(r[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.FGT -> {
+                    r[fp + code[pc + 1]] = f(r[fp + code[pc + 2]]) > f(r[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.FGE -> {
+                    r[fp + code[pc + 1]] = f(r[fp + code[pc + 2]]) >= f(r[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.FEQ -> {
+                    r[fp + code[pc + 1]] = f(r[fp + code[pc + 2]]) == f(r[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.FNE -> {
+                    r[fp + code[pc + 1]] = f(r[fp + code[pc + 2]]) != f(r[fp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Bytecode.AND -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] & r[fp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Bytecode.OR -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] | r[fp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Bytecode.NOT -> {
+                    r[fp + code[pc + 1]] = r[fp + code[pc + 2]] ^ 1;
+                    pc += 3;
+                }
+                case Bytecode.INEG -> {
+                    r[fp + code[pc + 1]] = -(int) r[fp + code[pc + 2]];
+                    pc += 3;
+                }
+                case Bytecode.FNEG -> {
+                    r[fp + code[pc + 1]] = bits(-f(r[fp + code[pc + 2]]));
+                    pc += 3;
+                }
+                case Bytecode.I2F -> {
+                    r[fp + code[pc + 1]] = bits((float) (int) r[fp + code[pc + 2]]);
+                    pc += 3;
+                }
+                case Bytecode.F2I -> {
+                    r[fp + code[pc + 1]] = (int) f(r[fp + code[pc + 2]]);
+                    pc += 3;
+                }
+                case Bytecode.I2C -> {
+                    r[fp + code[pc + 1]] = (char) r[fp + code[pc + 2]];
+                    pc += 3;
+                }
+                case Bytecode.JMP -> pc = code[pc + 1];
+                case Bytecode.JLT -> pc = r[fp + code[pc + 1]] < r[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                case Bytecode.JLE -> pc = r[fp + code[pc + 1]] <= r[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                case Bytecode.JGT -> pc = r[fp + code[pc + 1]] > r[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                case Bytecode.JGE -> pc = r[fp + code[pc + 1]] >= r[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                case Bytecode.JEQ -> pc = r[fp + code[pc + 1]] == r[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                case Bytecode.JNE -> pc = r[fp + code[pc + 1]] != r[fp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+                case Bytecode.JFLT -> pc = f(r[fp + code[pc + 1]]) < f(r[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                case Bytecode.JFLE -> pc = f(r[fp + code[pc + 1]]) <= f(r[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                case Bytecode.JFGT -> pc = f(r[fp + code[pc + 1]]) > f(r[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                case Bytecode.JFGE -> pc = f(r[fp + code[pc + 1]]) >= f(r[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                case Bytecode.JFEQ -> pc = f(r[fp + code[pc + 1]]) == f(r[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                case Bytecode.JFNE -> pc = f(r[fp + code[pc + 1]]) != f(r[fp + code[pc + 2]]) ? code[pc + 3] : pc + 4;
+                case Bytecode.JZ -> pc = r[fp + code[pc + 1]] == 0 ? code[pc + 2] : pc + 3;
+                case Bytecode.JNZ -> pc = r[fp + code[pc + 1]] != 0 ? code[pc + 2] : pc + 3;
+                case Bytecode.CALL -> {
+                    int f = code[pc + 2], args = code[pc + 3], n = code[pc + 4];
+                    int callee = fp + frameSize;
+                    int size = program.registers[f];
+                    if (callee + size > r.length) {
+                        ensure(callee + size);
+                        r = registers;
+                    }
+                    if (sp + 4 > calls.length)
+                        calls = Arrays.copyOf(calls, 2 * calls.length);
+                    calls[sp++] = pc + 5;
+                    calls[sp++] = fp;
+                    calls[sp++] = code[pc + 1];
+                    calls[sp++] = frameSize;
+                    System.arraycopy(r, fp + args, r, callee, n);
+                    Arrays.fill(r, callee + n, callee + program.functions[f].frameSize, Evaluator.UNDEF);
+                    fp = callee;
+                    frameSize = size;
+                    pc = program.entry[f];
+                }
+                case Bytecode.RET -> {
+                    long value = r[fp + code[pc + 1]];
+                    if (sp == 0)
+                        return;
+                    frameSize = calls[--sp];
+                    int result = calls[--sp];
+                    fp = calls[--sp];
+                    pc = calls[--sp];
+                    if (result >= 0)
+                        r[fp + result] = value;
+                }
+                case Bytecode.RETV -> {
+                    if (sp == 0)
+                        return;
+                    if (calls[sp - 2] >= 0)
+                        throw new IllegalArgumentException(program.functions[code[pc + 1]].id + " returned no value");
+                    frameSize = calls[--sp];
+                    --sp;
+                    fp = calls[--sp];
+                    pc = calls[--sp];
+                }
+                default -> throw new IllegalArgumentException("bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    private static float f(long bits) {
+        return Float.intBitsToFloat((int) bits);
+    }
+
+    private static long bits(float f) {
+        return Float.floatToRawIntBits(f);
+    }
+
+    public static void main(String args[]) throws java.io.IOException {
+        boolean disassemble = args[0].equals("-d");
+        String fileName = args[disassemble ? 1 : 0];
+        CompileResult result = Compiler.compileFile(fileName);
+        if (!result.ok()) {
+            result.printDiagnostics(System.err, fileName);
+            System.exit(1);
+        }
+        Bytecode bytecode = Bytecode.compile(result.output());
+        if (disassemble)
+            System.out.print(bytecode.disassemble());
+        State state = new VM(bytecode).run();
+        System.out.println("Final State");
+        state.display();
+    }
+}